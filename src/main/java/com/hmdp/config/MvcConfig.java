@@ -1,34 +1,54 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.DauRecorder;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RateLimitInterceptor;
+import com.hmdp.utils.RateLimiter;
 import com.hmdp.utils.RefreshIntercepter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
     @Autowired
-    StringRedisTemplate stringRedisTemplate;
+    LoginSessionCache loginSessionCache;
+    @Autowired
+    DauRecorder dauRecorder;
+    @Autowired
+    RateLimiter rateLimiter;
 
+    @Value("${hmdp.rate-limit.enabled:true}")
+    private boolean rateLimitEnabled;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LoginInterceptor())
                 .excludePathPatterns(
                         "/shop/**",
-                        "/voucher/**",
+                        // 补充库存会修改数据库和redis库存，需要登录，不在放行的路径里
+                        "/voucher",
+                        "/voucher/seckill",
+                        "/voucher/list/**",
                         "/shop-type/**",
                         "/upload/**",
                         "/blog/hot",
+                        "/blog/hot/**",
                         "/user/code",
                         "/user/login"
                 )
                 .order(1);
-        registry.addInterceptor(new RefreshIntercepter(stringRedisTemplate))
+        registry.addInterceptor(new RefreshIntercepter(loginSessionCache, dauRecorder))
                 .addPathPatterns("/**")
                 .order(0);
+        // 在登录拦截之后，限流时已经知道用户id
+        if (rateLimitEnabled) {
+            registry.addInterceptor(new RateLimitInterceptor(rateLimiter))
+                    .addPathPatterns("/voucher-order/seckill/**")
+                    .order(2);
+        }
     }
 }
@@ -0,0 +1,62 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.SeckillMetaCache;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.ShopNameIndex;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_META_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_INDEX_CHANNEL;
+
+@Configuration
+public class RedisListenerConfig {
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       CacheClient cacheClient,
+                                                                       IdBloomFilter idBloomFilter,
+                                                                       LoginSessionCache loginSessionCache,
+                                                                       ShopNameIndex shopNameIndex,
+                                                                       SeckillStock seckillStock,
+                                                                       SeckillMetaCache seckillMetaCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 其他节点更新了缓存，删除本节点的进程内缓存
+        container.addMessageListener((message, pattern) ->
+                        cacheClient.evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        // 其他节点新增了商铺或优惠券，加入本节点的布隆过滤器
+        container.addMessageListener((message, pattern) ->
+                        idBloomFilter.onRemoteAdd(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(BLOOM_ADD_CHANNEL));
+        // 用户在其他节点登出，删除本节点缓存的会话
+        container.addMessageListener((message, pattern) ->
+                        loginSessionCache.evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(LOGIN_INVALIDATE_CHANNEL));
+        // 其他节点新增或修改了商铺名称，更新本节点的搜索索引
+        container.addMessageListener((message, pattern) ->
+                        shopNameIndex.onRemoteUpdate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SHOP_INDEX_CHANNEL));
+        // 秒杀券在其他节点卖完或者补充了库存
+        container.addMessageListener((message, pattern) ->
+                        seckillStock.onRemoteMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        // 其他节点创建了秒杀券，删除本节点缓存的活动信息
+        container.addMessageListener((message, pattern) ->
+                        seckillMetaCache.onRemoteUpdate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SECKILL_META_CHANNEL));
+        return container;
+    }
+}
@@ -1,19 +1,14 @@
 package com.hmdp.controller;
 
 
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
-import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
-import com.hmdp.service.IUserService;
-import com.hmdp.utils.SystemConstants;
-import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvRecorder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
-import java.util.List;
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * <p>
@@ -29,55 +24,98 @@ public class BlogController {
 
     @Resource
     private IBlogService blogService;
+
     @Resource
-    private IUserService userService;
+    private UvRecorder uvRecorder;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
-        // 获取登录用户
-        UserDTO user = UserHolder.getUser();
-        blog.setUserId(user.getId());
-        // 保存探店博文
-        blogService.save(blog);
-        // 返回id
-        return Result.ok(blog.getId());
+        // 保存探店博文，并加入热门榜
+        return blogService.saveBlog(blog);
     }
 
     @PutMapping("/like/{id}")
     public Result likeBlog(@PathVariable("id") Long id) {
         // 修改点赞数量
-        blogService.update()
-                .setSql("liked = liked + 1").eq("id", id).update();
-        return Result.ok();
+        return blogService.likeBlog(id);
+    }
+
+    @GetMapping("/{id}")
+    public Result queryBlogById(@PathVariable("id") Long id, HttpServletRequest request) {
+        Result result = blogService.queryBlogById(id);
+        // 博文存在时记录一次访问，只写进程内缓冲区
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            uvRecorder.record(UvRecorder.TYPE_BLOG, id, uvRecorder.visitor(request));
+        }
+        return result;
+    }
+
+    /**
+     * 博文的独立访客数
+     * @param window day 按天；week 截止date的7天
+     * @param date yyyyMMdd，不传表示今天
+     */
+    @GetMapping("/uv/{id}")
+    public Result queryBlogUv(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "window", defaultValue = "day") String window,
+            @RequestParam(value = "date", required = false) String date) {
+        return uvRecorder.queryCount(UvRecorder.TYPE_BLOG, id, window, date);
     }
 
+    /**
+     * 查询我的博文
+     * @param current 页码
+     * @param cursor 游标分页：第一页传空字符串，之后传上一页返回的next
+     */
     @GetMapping("/of/me")
-    public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
-        // 获取登录用户
-        UserDTO user = UserHolder.getUser();
-        // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        return Result.ok(records);
+    public Result queryMyBlog(
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        if (cursor != null) {
+            return blogService.queryMyBlogWithCursor(cursor);
+        }
+        return blogService.queryMyBlog(current);
     }
 
+    /**
+     * 查询热门博文
+     * @param current 页码
+     * @param cursor 游标分页：第一页传空字符串，之后传上一页返回的next
+     */
     @GetMapping("/hot")
-    public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
-        // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->{
-            Long userId = blog.getUserId();
-            User user = userService.getById(userId);
-            blog.setName(user.getNickName());
-            blog.setIcon(user.getIcon());
-        });
-        return Result.ok(records);
+    public Result queryHotBlog(
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        if (cursor != null) {
+            return blogService.queryHotBlogWithCursor(cursor);
+        }
+        return blogService.queryHotBlog(current);
+    }
+
+    /**
+     * 滚动查询热门博文
+     * @param max 上一页返回的minScore，第一页不传
+     * @param offset 上一页返回的offset，第一页为0
+     * @param type hot 按点赞数；trending 按点赞数和发布时间
+     */
+    @GetMapping("/hot/scroll")
+    public Result queryHotBlogScroll(
+            @RequestParam(value = "max", defaultValue = "" + Long.MAX_VALUE) Long max,
+            @RequestParam(value = "offset", defaultValue = "0") Integer offset,
+            @RequestParam(value = "type", defaultValue = "hot") String type) {
+        return blogService.queryHotBlogScroll(max, offset, type);
+    }
+
+    /**
+     * 滚动查询关注的人发布的博文，从新到旧
+     * @param max 上一页返回的minScore，第一页不传
+     * @param offset 上一页返回的offset，第一页为0
+     */
+    @GetMapping("/of/follow")
+    public Result queryBlogOfFollow(
+            @RequestParam(value = "lastId", defaultValue = "" + Long.MAX_VALUE) Long max,
+            @RequestParam(value = "offset", defaultValue = "0") Integer offset) {
+        return blogService.queryBlogOfFollow(max, offset);
     }
 }
@@ -1,15 +1,14 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UvRecorder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * <p>
@@ -26,16 +25,39 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private UvRecorder uvRecorder;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
+    public Result queryShopById(@PathVariable("id") Long id, HttpServletRequest request) {
 //        return shopService.queryById(id);
 //        return shopService.queryByIdWithMutex(id);
-        return shopService.queryByIDWithCacheClient(id);
+//        return shopService.queryByIdWithLogicalExpire(id);
+        Result result = shopService.queryByIDWithCacheClient(id);
+        // 商铺存在时记录一次访问，只写进程内缓冲区
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            uvRecorder.record(UvRecorder.TYPE_SHOP, id, uvRecorder.visitor(request));
+        }
+        return result;
+    }
+
+    /**
+     * 商铺的独立访客数
+     * @param window day 按天；week 截止date的7天
+     * @param date yyyyMMdd，不传表示今天
+     */
+    @GetMapping("/uv/{id}")
+    public Result queryShopUv(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "window", defaultValue = "day") String window,
+            @RequestParam(value = "date", required = false) String date
+    ) {
+        return uvRecorder.queryCount(UvRecorder.TYPE_SHOP, id, window, date);
     }
 
     /**
@@ -46,9 +68,7 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -66,37 +86,55 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param x 经度，和y一起传入时按距离从近到远排序
+     * @param y 纬度
+     * @param cursor 游标分页：第一页传空字符串，之后传上一页返回的next；按距离排序时不支持
      * @return 商铺列表
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        if (cursor != null && (x == null || y == null)) {
+            return shopService.queryShopByTypeWithCursor(typeId, cursor);
+        }
+        return shopService.queryShopByType(typeId, current, x, y);
     }
 
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
      * @param current 页码
+     * @param cursor 游标分页：第一页传空字符串，之后传上一页返回的next
      * @return 商铺列表
      */
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        if (cursor != null) {
+            return shopService.queryShopByNameWithCursor(name, cursor);
+        }
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 搜索框输入时的联想
+     * @param prefix 已输入的内容
+     * @param limit 最多返回的名称数
+     * @return 以prefix开头的商铺名称
+     */
+    @GetMapping("/suggest")
+    public Result suggestShopName(
+            @RequestParam("prefix") String prefix,
+            @RequestParam(value = "limit", defaultValue = "10") Integer limit
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.suggestShopName(prefix, limit);
     }
 }
@@ -0,0 +1,172 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IUserService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.DauRecorder;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RateLimiter;
+import com.hmdp.utils.RedisPipelineExecutor;
+import com.hmdp.utils.RedisScripts;
+import com.hmdp.utils.SeckillMetaCache;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.UvRecorder;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * 运行指标查询
+ * </p>
+ */
+@RestController
+@RequestMapping("/stats")
+public class StatsController {
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private IdBloomFilter idBloomFilter;
+    @Resource
+    private LoginSessionCache loginSessionCache;
+    @Resource
+    private RedisPipelineExecutor redisPipelineExecutor;
+    @Resource
+    private RedisScripts redisScripts;
+    @Resource
+    private ShopNameIndex shopNameIndex;
+    @Resource
+    private IUserService userService;
+    @Resource
+    private UvRecorder uvRecorder;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private SeckillMetaCache seckillMetaCache;
+    @Resource
+    private RateLimiter rateLimiter;
+    @Resource
+    private DauRecorder dauRecorder;
+
+    /**
+     * 秒杀订单落库的吞吐和批次大小
+     */
+    @GetMapping("/order")
+    public Result orderStats() {
+        return Result.ok(voucherOrderService.getOrderStats());
+    }
+
+    /**
+     * 秒杀库存分片的命中、借用其他分片和售罄次数，活动信息缓存的命中
+     */
+    @GetMapping("/seckill")
+    public Result seckillStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stock", seckillStock.stats());
+        stats.put("meta", seckillMetaCache.stats());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 限流放行的请求数，本节点和redis分别拒绝的请求数
+     */
+    @GetMapping("/rate-limit")
+    public Result rateLimitStats() {
+        return Result.ok(rateLimiter.stats());
+    }
+
+    /**
+     * 进程内缓存按key前缀统计的命中、未命中和淘汰次数
+     */
+    @GetMapping("/cache")
+    public Result cacheStats() {
+        return Result.ok(cacheClient.localCacheStats());
+    }
+
+    /**
+     * 缓存未命中时请求合并的比例和等待时间
+     */
+    @GetMapping("/cache/single-flight")
+    public Result singleFlightStats() {
+        return Result.ok(cacheClient.singleFlightStats());
+    }
+
+    /**
+     * 布隆过滤器的内存占用和当前误判率
+     */
+    @GetMapping("/bloom")
+    public Result bloomStats() {
+        return Result.ok(idBloomFilter.stats());
+    }
+
+    /**
+     * 登录会话的本地命中、跳过的刷新和批量发出的EXPIRE数量
+     */
+    @GetMapping("/session")
+    public Result sessionStats() {
+        return Result.ok(loginSessionCache.stats());
+    }
+
+    /**
+     * 合并发送的redis命令数和节省的往返次数
+     */
+    @GetMapping("/redis")
+    public Result redisStats() {
+        return Result.ok(redisPipelineExecutor.stats());
+    }
+
+    /**
+     * 每个lua脚本的调用次数、重新加载次数和耗时
+     */
+    @GetMapping("/scripts")
+    public Result scriptStats() {
+        return Result.ok(redisScripts.stats());
+    }
+
+    /**
+     * 商铺名称索引的大小、估算内存和查询耗时
+     */
+    @GetMapping("/search")
+    public Result searchStats() {
+        return Result.ok(shopNameIndex.stats());
+    }
+
+    /**
+     * UV记录的缓冲区大小、丢弃数和批量写入次数
+     */
+    @GetMapping("/uv")
+    public Result uvStats() {
+        return Result.ok(uvRecorder.stats());
+    }
+
+    /**
+     * 日活记录的缓冲区大小和批量写入次数
+     */
+    @GetMapping("/dau/recorder")
+    public Result dauRecorderStats() {
+        return Result.ok(dauRecorder.stats());
+    }
+
+    /**
+     * 每天的活跃用户数
+     * @param date yyyyMMdd，不传表示今天
+     * @param days 从date往前查询的天数
+     */
+    @GetMapping("/dau")
+    public Result dau(@RequestParam(value = "date", required = false) String date,
+                      @RequestParam(value = "days", defaultValue = "1") Integer days) {
+        return userService.queryDau(date, days);
+    }
+}
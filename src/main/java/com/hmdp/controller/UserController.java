@@ -57,9 +57,8 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader(value = "authorization", required = false) String token){
+        return userService.logout(token);
     }
 
     @GetMapping("/me")
@@ -69,6 +68,31 @@ public class UserController {
         return Result.ok(user);
     }
 
+    /**
+     * 今天签到，每天第一次签到奖励积分
+     */
+    @PostMapping("/sign")
+    public Result sign(){
+        return userService.sign();
+    }
+
+    /**
+     * 截止今天连续签到的天数，今天还没签到时算到昨天
+     */
+    @GetMapping("/sign/streak")
+    public Result signStreak(){
+        return userService.signStreak();
+    }
+
+    /**
+     * 某个月的签到天数
+     * @param month yyyyMM，不传表示本月
+     */
+    @GetMapping("/sign/count")
+    public Result signCount(@RequestParam(value = "month", required = false) String month){
+        return userService.signCount(month);
+    }
+
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
         // 查询详情
@@ -5,13 +5,17 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.impl.VoucherOrderServiceImpl;
+import com.hmdp.utils.RateLimit;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  前端控制器
@@ -26,12 +30,30 @@ public class VoucherOrderController {
     @Autowired
     private IVoucherOrderService voucherOrderService;
 
+    @Value("${hmdp.seckill.async-enabled:true}")
+    private boolean asyncEnabled;
+
     /**
      * 用户购买秒杀券，为此创建订单
+     * 每张券每秒最多放行2000个请求，每个用户每秒1个，超过的请求返回429
      */
+    @RateLimit(name = "seckill", key = "id", rate = 2000, burst = 2000, userRate = 1, userBurst = 2)
     @PostMapping("/seckill/{id}")
     public Result createVoucherOrder(@PathVariable("id") long voucherID) {
 //        return voucherOrderService.createOrder(voucherID);
         return voucherOrderService.createOrder2(voucherID);
     }
+
+    /**
+     * 异步下单，发号和扣库存用redis异步命令，servlet线程立即释放，结果在redis返回后写回
+     * 关闭hmdp.seckill.async-enabled时和同步接口一样在servlet线程中执行
+     */
+    @RateLimit(name = "seckill", key = "id", rate = 2000, burst = 2000, userRate = 1, userBurst = 2)
+    @PostMapping("/seckill/{id}/async")
+    public CompletableFuture<Result> createVoucherOrderAsync(@PathVariable("id") long voucherID) {
+        if (!asyncEnabled) {
+            return CompletableFuture.completedFuture(voucherOrderService.createOrder2(voucherID));
+        }
+        return voucherOrderService.createOrderAsync(voucherID);
+    }
 }
@@ -0,0 +1,21 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页的结果，next传给下一次请求的cursor参数，为null表示没有更多数据
+ */
+@Data
+public class CursorResult {
+    private List<?> list;
+    private String next;
+
+    public static CursorResult of(List<?> list, String next) {
+        CursorResult r = new CursorResult();
+        r.setList(list);
+        r.setNext(next);
+        return r;
+    }
+}
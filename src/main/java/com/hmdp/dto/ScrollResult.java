@@ -0,0 +1,15 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 按分数滚动分页的结果，下一页用minScore作为max、offset作为偏移量继续查询
+ */
+@Data
+public class ScrollResult {
+    private List<?> list;
+    private Long minScore;
+    private Integer offset;
+}
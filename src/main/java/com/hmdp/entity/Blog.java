@@ -71,6 +71,12 @@ public class Blog implements Serializable {
      */
     private Integer liked;
 
+    /**
+     * 当前用户是否点赞过
+     */
+    @TableField(exist = false)
+    private Boolean isLike;
+
     /**
      * 评论数量
      */
@@ -2,6 +2,12 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +19,22 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 批量累加点赞数，key是博文id，value是点赞增量
+     */
+    int updateLikedBatch(@Param("deltas") Map<Long, Long> deltas);
+
+    /**
+     * 点赞写回的记录表，(写回批次id, 博文id)是主键，和点赞数在同一个事务中写入，重复写回时主键冲突
+     */
+    void createLikeFlushTable();
+
+    int insertLikeFlushes(@Param("flushId") String flushId, @Param("blogIds") Collection<Long> blogIds);
+
+    /**
+     * 这一批博文中已经写回过的
+     */
+    List<Long> selectFlushedBlogIds(@Param("flushId") String flushId, @Param("blogIds") Collection<Long> blogIds);
+
+    int deleteLikeFlushesBefore(@Param("time") LocalDateTime time);
 }
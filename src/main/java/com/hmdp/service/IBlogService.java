@@ -1,8 +1,12 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +17,31 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    Result saveBlog(Blog blog);
+
+    Result likeBlog(Long id);
+
+    Result queryBlogById(Long id);
+
+    Result queryMyBlog(Integer current);
+
+    Result queryMyBlogWithCursor(String cursor);
+
+    Result queryHotBlog(Integer current);
+
+    Result queryHotBlogWithCursor(String cursor);
+
+    Result queryHotBlogScroll(Long max, Integer offset, String type);
+
+    Result queryBlogOfFollow(Long max, Integer offset);
+
+    /**
+     * 在一个事务中记录写回批次并累加点赞数，同一批次的博文重复写回时主键冲突，整批回滚
+     */
+    void applyLikeBatch(String flushId, Map<Long, Long> batch);
+
+    /**
+     * 批量填充博文作者的昵称和头像
+     */
+    void fillBlogAuthors(List<Blog> blogs);
 }
@@ -1,8 +1,11 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Set;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +16,19 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IFollowService extends IService<Follow> {
 
+    Result follow(Long followUserId, Boolean isFollow);
+
+    Result isFollow(Long followUserId);
+
+    Result followCommons(Long id);
+
+    /**
+     * 当前用户关注的人中粉丝很多、不推送收件箱的作者，读取时要从他们的发件箱拉取
+     */
+    Set<Long> queryFollowedBigAuthors(Long userId);
+
+    /**
+     * 异步把新博文推送到所有粉丝的收件箱
+     */
+    void pushToFollowers(Long authorId, Long blogId, long timestamp);
 }
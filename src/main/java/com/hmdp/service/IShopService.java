@@ -16,9 +16,23 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
 
     Result queryByIDWithCacheClient(Long id);
 
     Result queryByIdWithMutex(Long id);
+
+    Result queryByIdWithLogicalExpire(Long id);
+
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result queryShopByTypeWithCursor(Integer typeId, String cursor);
+
+    Result queryShopByName(String name, Integer current);
+
+    Result queryShopByNameWithCursor(String name, String cursor);
+
+    Result suggestShopName(String prefix, Integer limit);
 }
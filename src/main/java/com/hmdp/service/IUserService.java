@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -20,4 +23,22 @@ public interface IUserService extends IService<User> {
     Result sendCode(String phone);
 
     Result login(LoginFormDTO loginForm);
+
+    Result logout(String token);
+
+    /**
+     * 批量查询用户的昵称和头像，优先读缓存，只有未命中的用户才查数据库
+     */
+    Map<Long, UserDTO> queryUserSummaries(Collection<Long> ids);
+
+    Result sign();
+
+    Result signStreak();
+
+    Result signCount(String month);
+
+    /**
+     * 从date往前days天，每天的活跃用户数
+     */
+    Result queryDau(String date, Integer days);
 }
@@ -5,6 +5,10 @@ import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -21,5 +25,11 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result createOrder2(long voucherID);
 
+    CompletableFuture<Result> createOrderAsync(long voucherID);
+
     void createOrderInDB(VoucherOrder order);
+
+    void createOrdersInDB(List<VoucherOrder> orders);
+
+    Map<String, Object> getOrderStats();
 }
@@ -1,10 +1,58 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.lang.UUID;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IFollowService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.PageCursor;
+import com.hmdp.utils.RedisPipelineExecutor;
+import com.hmdp.utils.RedisScripts;
+import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -14,7 +62,538 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
+    public static final String RANK_HOT = "hot";
+    public static final String RANK_TRENDING = "trending";
+    // 热门博文游标的类型
+    private static final String CURSOR_RANK = "z";
+    private static final String CURSOR_DB = "d";
+
+    // 趋势分的起始时间，分数 = (发布时间 - 起始时间)的秒数 + gravity * log10(点赞数)
+    private static final long TRENDING_EPOCH_SECONDS = LocalDateTime.of(2021, 12, 1, 0, 0)
+            .atZone(ZoneId.systemDefault()).toEpochSecond();
+
+    private static final String LIKE_SCRIPT = "likeBlog";
+    private static final String HOT_RANK_BEGIN_SCRIPT = "hotRankBegin";
+    private static final String HOT_RANK_SWAP_SCRIPT = "hotRankSwap";
+    // 重建中的标记、点赞日志和临时榜单的有效期，重建中途崩溃时自动清除
+    private static final long HOT_REBUILD_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    // 点赞写回记录的保留时间，只用来判断中断后的重复写回
+    private static final long LIKE_FLUSH_RETAIN_HOURS = 24;
+
+    @Resource
+    private IUserService userService;
+    @Resource
+    private IFollowService followService;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisPipelineExecutor redisPipelineExecutor;
+    @Autowired
+    private RedisScripts redisScripts;
+    // 定时任务要调用@Transactional注解的方法，需要代理对象
+    @Lazy
+    @Autowired
+    private IBlogService proxy;
+
+    // 榜单中最多保留的点赞最多的博文数
+    @Value("${hmdp.blog.hot.max-size:10000}")
+    private int hotMaxSize;
+    // 最近多少天发布的博文都放进榜单，新博文即使没有点赞也能上趋势榜
+    @Value("${hmdp.blog.hot.recent-days:7}")
+    private int recentDays;
+    // 点赞数每增长10倍增加的趋势分，45000秒即12.5小时
+    @Value("${hmdp.blog.hot.trending-gravity:45000}")
+    private long trendingGravity;
+    @Value("${hmdp.blog.hot.rebuild-minutes:10}")
+    private long rebuildMinutes;
+    // 点赞增量写回数据库的间隔
+    @Value("${hmdp.blog.like.flush-seconds:5}")
+    private long likeFlushSeconds;
+    // 每条UPDATE语句最多更新的博文数
+    @Value("${hmdp.blog.like.flush-batch-size:500}")
+    private int likeFlushBatchSize;
+    // 发件箱最多保留的博文数
+    @Value("${hmdp.feed.outbox-max-size:1000}")
+    private long outboxMaxSize;
+
+    private final ScheduledExecutorService blogTaskExecutor = Executors.newSingleThreadScheduledExecutor();
+    // 多个节点同时只有一个在写回点赞增量或重建榜单；重建时数据库的点赞数不能变，所以两者用同一把锁
+    private ILock likeFlushLock;
+
+    @PostConstruct
+    private void init() {
+        likeFlushLock = new SimpleRedisLock(stringRedisTemplate, redisScripts, BLOG_LIKE_FLUSH_LOCK);
+        getBaseMapper().createLikeFlushTable();
+        // 启动时立即重建一次，之后定时从数据库校正
+        blogTaskExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                rebuildHotRank();
+            } catch (Exception e) {
+                log.error("重建热门博文榜失败", e);
+            }
+        }, 0, rebuildMinutes, TimeUnit.MINUTES);
+        blogTaskExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                flushLikes();
+            } catch (Exception e) {
+                log.error("点赞数写回数据库失败", e);
+            }
+        }, likeFlushSeconds, likeFlushSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        blogTaskExecutor.shutdownNow();
+    }
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 1.获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 2.保存探店博文
+        save(blog);
+        // 3.新博文加入榜单和作者的发件箱
+        String id = blog.getId().toString();
+        long now = System.currentTimeMillis();
+        double trendingScore = trendingScore(0, LocalDateTime.now());
+        String outboxKey = FEED_OUTBOX_KEY + user.getId();
+        redisPipelineExecutor.pipeline("saveBlog", conn -> {
+            conn.zAdd(BLOG_HOT_KEY, 0, id);
+            conn.zAdd(BLOG_TRENDING_KEY, trendingScore, id);
+            conn.zAdd(outboxKey, now, id);
+            conn.zRemRange(outboxKey, 0, -outboxMaxSize - 1);
+        });
+        // 4.异步推送到粉丝的收件箱
+        followService.pushToFollowers(user.getId(), blog.getId(), now);
+        // 5.返回id
+        return Result.ok(blog.getId());
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        // 1.获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.在redis中点赞或取消点赞，同时更新待写回的增量和榜单分数，不直接修改数据库
+        redisPipelineExecutor.script(LIKE_SCRIPT, Long.class, 7,
+                Arrays.asList(BLOG_LIKED_KEY + id, BLOG_LIKE_DELTA_KEY, BLOG_HOT_KEY, BLOG_TRENDING_KEY,
+                        BLOG_HOT_REBUILDING_KEY, BLOG_HOT_JOURNAL_KEY),
+                userId.toString(), id.toString(), String.valueOf(trendingGravity));
+        return Result.ok();
+    }
+
+    /**
+     * 把redis中累计的点赞增量批量写回数据库
+     * 先把增量hash改名，之后的点赞记到新的hash里；改名时生成写回批次id，和hash一起保留到写回完成
+     * 每批博文的点赞数和(批次id, 博文id)在同一个事务中写入数据库，提交后再删除这一批的增量；
+     * 提交后没来得及删除就中断，或者锁过期后另一个节点同时写回时，主键冲突会跳过已经写回的博文，点赞数不会重复累加
+     */
+    public void flushLikes() {
+        if (!likeFlushLock.tryLock(60)) {
+            return;
+        }
+        try {
+            // 1.没有上次剩下的增量，就把当前的增量取出来；上次剩下的继续用上次的批次id
+            String flushId = null;
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKE_FLUSHING_KEY))) {
+                flushId = stringRedisTemplate.opsForValue().get(BLOG_LIKE_FLUSH_ID_KEY);
+            } else {
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKE_DELTA_KEY))) {
+                    return;
+                }
+                stringRedisTemplate.rename(BLOG_LIKE_DELTA_KEY, BLOG_LIKE_FLUSHING_KEY);
+            }
+            // 改名后还没有生成批次id就中断的，还没有写回过，用新的id
+            if (flushId == null) {
+                flushId = UUID.fastUUID().toString(true);
+                stringRedisTemplate.opsForValue().set(BLOG_LIKE_FLUSH_ID_KEY, flushId);
+            }
+            // 2.解析增量，点赞又取消的博文增量为0，不需要更新；按id排序，多个事务按相同顺序加锁
+            Map<Long, Long> deltas = new TreeMap<>();
+            stringRedisTemplate.opsForHash().entries(BLOG_LIKE_FLUSHING_KEY).forEach((blogId, delta) -> {
+                long d = Long.parseLong(delta.toString());
+                if (d != 0) {
+                    deltas.put(Long.valueOf(blogId.toString()), d);
+                }
+            });
+            // 3.分批更新数据库，每批一个事务，提交后马上删除这一批的增量，中途失败时下次只写回剩下的
+            Map<Long, Long> batch = new TreeMap<>();
+            for (Map.Entry<Long, Long> entry : deltas.entrySet()) {
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() >= likeFlushBatchSize) {
+                    flushLikeBatch(flushId, batch);
+                    batch = new TreeMap<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                flushLikeBatch(flushId, batch);
+            }
+            // 4.剩下的只有增量为0的博文，和批次id一起删除
+            stringRedisTemplate.delete(Arrays.asList(BLOG_LIKE_FLUSHING_KEY, BLOG_LIKE_FLUSH_ID_KEY));
+            // 5.清理过期的写回记录
+            getBaseMapper().deleteLikeFlushesBefore(LocalDateTime.now().minusHours(LIKE_FLUSH_RETAIN_HOURS));
+            log.debug("点赞数写回数据库，博文数={}", deltas.size());
+        } finally {
+            likeFlushLock.unlock();
+        }
+    }
+
+    private void flushLikeBatch(String flushId, Map<Long, Long> batch) {
+        Object[] fields = new Object[batch.size()];
+        int i = 0;
+        for (Long blogId : batch.keySet()) {
+            fields[i++] = blogId.toString();
+        }
+        try {
+            proxy.applyLikeBatch(flushId, batch);
+        } catch (DuplicateKeyException e) {
+            // 这一批中有博文已经写回过，整批已经回滚，去掉写回过的博文后再写一次
+            List<Long> flushed = getBaseMapper().selectFlushedBlogIds(flushId, batch.keySet());
+            log.warn("跳过已经写回的点赞增量 flushId={}, 博文数={}", flushId, flushed.size());
+            Map<Long, Long> rest = new TreeMap<>(batch);
+            rest.keySet().removeAll(flushed);
+            if (!rest.isEmpty()) {
+                proxy.applyLikeBatch(flushId, rest);
+            }
+        }
+        stringRedisTemplate.opsForHash().delete(BLOG_LIKE_FLUSHING_KEY, fields);
+    }
+
+    @Override
+    @Transactional
+    public void applyLikeBatch(String flushId, Map<Long, Long> batch) {
+        getBaseMapper().insertLikeFlushes(flushId, batch.keySet());
+        getBaseMapper().updateLikedBatch(batch);
+    }
+
+    @Override
+    public Result queryBlogById(Long id) {
+        // 查询博文，并填充作者和点赞信息
+        List<Blog> blogs = queryBlogsInOrder(Collections.singletonList(id));
+        if (blogs.isEmpty()) {
+            return Result.fail("博文不存在！");
+        }
+        return Result.ok(blogs.get(0));
+    }
+
+    @Override
+    public Result queryMyBlog(Integer current) {
+        // 结果中不返回总数，不需要count
+        Page<Blog> page = query()
+                .eq("user_id", UserHolder.getUser().getId())
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+        return Result.ok(page.getRecords());
+    }
+
+    @Override
+    public Result queryMyBlogWithCursor(String cursor) {
+        Long lastId;
+        try {
+            PageCursor c = PageCursor.decode(cursor);
+            lastId = c == null ? null : c.getLong(0);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("invalid cursor");
+        }
+        // where user_id = ? and id < 上一页最后的id order by id desc limit n，新发的在前
+        List<Blog> blogs = query()
+                .eq("user_id", UserHolder.getUser().getId())
+                .lt(lastId != null, "id", lastId)
+                .orderByDesc("id")
+                .last("limit " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        String next = blogs.size() < SystemConstants.MAX_PAGE_SIZE ? null
+                : PageCursor.encode(blogs.get(blogs.size() - 1).getId());
+        return Result.ok(CursorResult.of(blogs, next));
+    }
+
+    @Override
+    public Result queryHotBlog(Integer current) {
+        // 1.按排名分页查询榜单 ZREVRANGE blog:hot start end
+        long start = (long) (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        Set<String> idStrs = stringRedisTemplate.opsForZSet()
+                .reverseRange(BLOG_HOT_KEY, start, start + SystemConstants.MAX_PAGE_SIZE - 1);
+        // 2.榜单还没有建好，从数据库查询
+        if (idStrs == null || (idStrs.isEmpty() && !Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY)))) {
+            Page<Blog> page = query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            List<Blog> records = page.getRecords();
+            fillBlogAuthors(records);
+            fillBlogLikes(records);
+            return Result.ok(records);
+        }
+        // 3.一次查出这一页的博文
+        List<Long> ids = idStrs.stream().map(Long::valueOf).collect(Collectors.toList());
+        return Result.ok(queryBlogsInOrder(ids));
+    }
+
+    @Override
+    public Result queryHotBlogWithCursor(String cursor) {
+        // 游标的第一段是类型：z 榜单中的排名；d 数据库中上一页最后一条的 (liked, id)
+        String kind;
+        long start = 0;
+        Long lastLiked = null;
+        Long lastId = null;
+        try {
+            PageCursor c = PageCursor.decode(cursor);
+            kind = c == null ? null : c.get(0);
+            if (CURSOR_RANK.equals(kind)) {
+                start = c.getLong(1);
+            } else if (CURSOR_DB.equals(kind)) {
+                lastLiked = c.getLong(1);
+                lastId = c.getLong(2);
+            } else if (c != null) {
+                return Result.fail("invalid cursor");
+            }
+        } catch (IllegalArgumentException e) {
+            return Result.fail("invalid cursor");
+        }
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        // 1.榜单存在时按排名查询，ZREVRANGE本身就是按排名定位，不需要扫描前面的数据
+        if (!CURSOR_DB.equals(kind) && Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            Set<String> idStrs = stringRedisTemplate.opsForZSet().reverseRange(BLOG_HOT_KEY, start, start + size - 1);
+            List<Long> ids = idStrs == null ? Collections.emptyList()
+                    : idStrs.stream().map(Long::valueOf).collect(Collectors.toList());
+            String next = ids.size() < size ? null : PageCursor.encode(CURSOR_RANK, start + size);
+            return Result.ok(CursorResult.of(queryBlogsInOrder(ids), next));
+        }
+        // 2.从数据库按 (liked desc, id desc) 查询上一页最后一条之后的数据
+        Long liked = lastLiked;
+        Long id = lastId;
+        List<Blog> blogs = query()
+                .and(liked != null, w -> w.lt("liked", liked).or(w2 -> w2.eq("liked", liked).lt("id", id)))
+                .orderByDesc("liked", "id")
+                .last("limit " + size)
+                .list();
+        fillBlogAuthors(blogs);
+        fillBlogLikes(blogs);
+        String next = null;
+        if (blogs.size() == size) {
+            Blog last = blogs.get(blogs.size() - 1);
+            next = PageCursor.encode(CURSOR_DB, last.getLiked(), last.getId());
+        }
+        return Result.ok(CursorResult.of(blogs, next));
+    }
+
+    @Override
+    public Result queryHotBlogScroll(Long max, Integer offset, String type) {
+        String key = RANK_TRENDING.equals(type) ? BLOG_TRENDING_KEY : BLOG_HOT_KEY;
+        // 1.查询分数不大于max的博文 ZREVRANGEBYSCORE key max -inf WITHSCORES LIMIT offset count
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(key, Double.NEGATIVE_INFINITY, max, offset, SystemConstants.MAX_PAGE_SIZE);
+        if (tuples == null || tuples.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(toScrollResult(new ArrayList<>(tuples), max, offset));
+    }
+
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        // 1.获取当前用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.自己的收件箱，加上关注的大V的发件箱（大V发博文时不推送，读取时拉取）
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        for (Long authorId : followService.queryFollowedBigAuthors(userId)) {
+            keys.add(FEED_OUTBOX_KEY + authorId);
+        }
+        // 3.每个来源取分数不大于max的前offset+count条，合并后再跳过offset条
+        List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>();
+        for (String key : keys) {
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .reverseRangeByScoreWithScores(key, 0, max, 0, offset + SystemConstants.MAX_PAGE_SIZE);
+            if (tuples != null) {
+                merged.addAll(tuples);
+            }
+        }
+        // 4.按时间从新到旧排序，同一篇博文只保留一次
+        merged.sort(Comparator.comparing((ZSetOperations.TypedTuple<String> t) -> t.getScore()).reversed()
+                .thenComparing(t -> Long.valueOf(t.getValue()), Comparator.reverseOrder()));
+        Set<String> seen = new HashSet<>();
+        merged.removeIf(t -> !seen.add(t.getValue()));
+        if (merged.size() <= offset) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<ZSetOperations.TypedTuple<String>> page = merged.subList(offset,
+                Math.min(merged.size(), offset + SystemConstants.MAX_PAGE_SIZE));
+        return Result.ok(toScrollResult(page, max, offset));
+    }
+
+    // 解析一页的id，记录最小分数和与最小分数相同的个数，作为下一页的max和offset
+    private ScrollResult toScrollResult(List<ZSetOperations.TypedTuple<String>> tuples, Long max, Integer offset) {
+        List<Long> ids = new ArrayList<>(tuples.size());
+        long minScore = 0;
+        int os = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            ids.add(Long.valueOf(tuple.getValue()));
+            long score = tuple.getScore().longValue();
+            if (score == minScore) {
+                os++;
+            } else {
+                minScore = score;
+                os = 1;
+            }
+        }
+        // 最小分数和上一页相同时，偏移量要累加
+        if (minScore == max) {
+            os += offset;
+        }
+        // 一次查出这一页的博文
+        ScrollResult r = new ScrollResult();
+        r.setList(queryBlogsInOrder(ids));
+        r.setMinScore(minScore);
+        r.setOffset(os);
+        return r;
+    }
+
+    /**
+     * 从数据库重建榜单：点赞最多的博文和最近发布的博文，先写到临时key再改名，读请求看不到建了一半的榜单
+     * 和写回点赞用同一把锁，多个节点同时只有一个在重建，重建期间数据库的点赞数不变；
+     * 取点赞增量时打开点赞日志，之后的点赞在换榜时补上
+     */
+    public void rebuildHotRank() {
+        if (!likeFlushLock.tryLock(120)) {
+            return;
+        }
+        try {
+            doRebuildHotRank();
+        } catch (RuntimeException e) {
+            // 关闭点赞日志，临时榜单等有效期到了自动删除
+            stringRedisTemplate.delete(Arrays.asList(BLOG_HOT_REBUILDING_KEY, BLOG_HOT_JOURNAL_KEY));
+            throw e;
+        } finally {
+            likeFlushLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void doRebuildHotRank() {
+        // 0.取出还没有写回数据库的点赞增量，同时打开点赞日志
+        List<String> deltaList = redisScripts.execute(HOT_RANK_BEGIN_SCRIPT, List.class,
+                Arrays.asList(BLOG_LIKE_DELTA_KEY, BLOG_LIKE_FLUSHING_KEY, BLOG_HOT_REBUILDING_KEY, BLOG_HOT_JOURNAL_KEY),
+                HOT_REBUILD_TTL_MILLIS);
+        Map<Long, Long> pending = new HashMap<>();
+        for (int i = 0; i + 1 < deltaList.size(); i += 2) {
+            pending.merge(Long.valueOf(deltaList.get(i)), Long.parseLong(deltaList.get(i + 1)), Long::sum);
+        }
+        // 1.查询上榜的博文，只需要id、点赞数和发布时间
+        Map<Long, Blog> blogs = new LinkedHashMap<>();
+        query().select("id", "liked", "create_time")
+                .orderByDesc("liked")
+                .last("limit " + hotMaxSize)
+                .list()
+                .forEach(blog -> blogs.put(blog.getId(), blog));
+        query().select("id", "liked", "create_time")
+                .ge("create_time", LocalDateTime.now().minusDays(recentDays))
+                .list()
+                .forEach(blog -> blogs.put(blog.getId(), blog));
+        if (blogs.isEmpty()) {
+            stringRedisTemplate.delete(Arrays.asList(BLOG_HOT_REBUILDING_KEY, BLOG_HOT_JOURNAL_KEY));
+            return;
+        }
+        // 1.1 加上还没有写回数据库的点赞增量
+        blogs.forEach((id, blog) -> {
+            Long delta = pending.get(id);
+            if (delta != null) {
+                blog.setLiked((blog.getLiked() == null ? 0 : blog.getLiked()) + delta.intValue());
+            }
+        });
+        // 2.写入这次重建专用的临时key
+        String runId = UUID.randomUUID().toString(true);
+        String hotTmp = BLOG_HOT_KEY + ":tmp:" + runId;
+        String trendingTmp = BLOG_TRENDING_KEY + ":tmp:" + runId;
+        redisPipelineExecutor.pipeline("rebuildHotRank", conn -> {
+            for (Blog blog : blogs.values()) {
+                int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                String id = blog.getId().toString();
+                conn.zAdd(hotTmp, liked, id);
+                conn.zAdd(trendingTmp, trendingScore(liked, blog.getCreateTime()), id);
+            }
+            conn.pExpire(hotTmp, HOT_REBUILD_TTL_MILLIS);
+            conn.pExpire(trendingTmp, HOT_REBUILD_TTL_MILLIS);
+        });
+        // 3.原子地替换正式的榜单，补上重建期间的点赞，关闭点赞日志
+        Long applied = redisScripts.execute(HOT_RANK_SWAP_SCRIPT, Long.class,
+                Arrays.asList(BLOG_HOT_KEY, BLOG_TRENDING_KEY, hotTmp, trendingTmp,
+                        BLOG_HOT_REBUILDING_KEY, BLOG_HOT_JOURNAL_KEY),
+                trendingGravity);
+        log.debug("热门博文榜重建完成，博文数={}，补上重建期间点赞的博文数={}", blogs.size(), applied);
+    }
+
+    // 取整，滚动分页时用整数分数作为游标
+    private double trendingScore(int liked, LocalDateTime createTime) {
+        long createSeconds = createTime == null ? TRENDING_EPOCH_SECONDS
+                : createTime.atZone(ZoneId.systemDefault()).toEpochSecond();
+        return Math.round(createSeconds - TRENDING_EPOCH_SECONDS + trendingGravity * Math.log10(Math.max(liked, 1)));
+    }
+
+    // 按id批量查询博文，保持id的顺序，并填充作者信息
+    private List<Blog> queryBlogsInOrder(Collection<Long> ids) {
+        Map<Long, Blog> blogMap = listByIds(ids).stream()
+                .collect(Collectors.toMap(Blog::getId, Function.identity()));
+        List<Blog> blogs = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Blog blog = blogMap.get(id);
+            if (blog != null) {
+                blogs.add(blog);
+            }
+        }
+        fillBlogAuthors(blogs);
+        fillBlogLikes(blogs);
+        return blogs;
+    }
+
+    /**
+     * 点赞数加上还没有写回数据库的增量，并标记当前用户是否点赞过，所有查询在一次pipeline中完成
+     */
+    @SuppressWarnings("unchecked")
+    private void fillBlogLikes(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        UserDTO user = UserHolder.getUser();
+        String[] ids = blogs.stream().map(blog -> blog.getId().toString()).toArray(String[]::new);
+        List<Object> results = redisPipelineExecutor.pipeline("fillBlogLikes", conn -> {
+            conn.hMGet(BLOG_LIKE_DELTA_KEY, ids);
+            conn.hMGet(BLOG_LIKE_FLUSHING_KEY, ids);
+            if (user != null) {
+                for (String id : ids) {
+                    conn.sIsMember(BLOG_LIKED_KEY + id, user.getId().toString());
+                }
+            }
+        });
+        List<String> deltas = (List<String>) results.get(0);
+        List<String> flushing = (List<String>) results.get(1);
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            long liked = blog.getLiked() == null ? 0 : blog.getLiked();
+            liked += parseDelta(deltas.get(i)) + parseDelta(flushing.get(i));
+            blog.setLiked((int) Math.max(liked, 0));
+            blog.setIsLike(user != null && Boolean.TRUE.equals(results.get(2 + i)));
+        }
+    }
+
+    private static long parseDelta(String delta) {
+        return delta == null ? 0 : Long.parseLong(delta);
+    }
 
+    @Override
+    public void fillBlogAuthors(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        // 收集作者id，一次查出所有作者
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = userService.queryUserSummaries(userIds);
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
 }
@@ -1,11 +1,38 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisPipelineExecutor;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +41,182 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
+    // 推送收件箱的线程池，发博文的请求不需要等待推送完成
+    private final ExecutorService feedPushExecutor = new ThreadPoolExecutor(2, 2,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(10000));
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisPipelineExecutor redisPipelineExecutor;
+    @Resource
+    private IUserService userService;
+
+    // 粉丝数达到这个值的作者不再推送，由读取的用户从发件箱拉取
+    @Value("${hmdp.feed.push-threshold:5000}")
+    private long pushThreshold;
+    // 每次从数据库查询并推送的粉丝数
+    @Value("${hmdp.feed.push-batch-size:500}")
+    private int pushBatchSize;
+    // 收件箱最多保留的博文数
+    @Value("${hmdp.feed.inbox-max-size:1000}")
+    private long inboxMaxSize;
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        // 1.获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        String key = FOLLOWS_KEY + userId;
+        // 2.判断是关注还是取关
+        if (Boolean.TRUE.equals(isFollow)) {
+            // 3.关注，先SADD，只有真正加入集合的请求才写数据库，同时发出的两个关注请求只有一个会插入
+            loadFollowsIfAbsent(userId);
+            Long added = stringRedisTemplate.opsForSet().add(key, followUserId.toString());
+            if (added == null || added == 0) {
+                return Result.ok();
+            }
+            Follow follow = new Follow();
+            follow.setUserId(userId);
+            follow.setFollowUserId(followUserId);
+            boolean saved;
+            try {
+                saved = save(follow);
+            } catch (DuplicateKeyException e) {
+                // 有唯一索引时，数据库里已经有这条关注
+                return Result.ok();
+            } catch (RuntimeException e) {
+                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+                throw e;
+            }
+            if (!saved) {
+                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+                return Result.fail("关注失败！");
+            }
+        } else {
+            // 4.取关，删除数据 delete from tb_follow where user_id = ? and follow_user_id = ?
+            boolean removed = remove(new QueryWrapper<Follow>()
+                    .eq("user_id", userId).eq("follow_user_id", followUserId));
+            if (removed) {
+                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+            }
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(isFollowing(userId, followUserId));
+    }
+
+    @Override
+    public Result followCommons(Long id) {
+        // 1.获取当前用户
+        Long userId = UserHolder.getUser().getId();
+        loadFollowsIfAbsent(userId);
+        loadFollowsIfAbsent(id);
+        // 2.求交集
+        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, FOLLOWS_KEY + id);
+        if (intersect == null || intersect.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 3.一次查出这些用户的昵称和头像
+        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserSummaries(ids);
+        return Result.ok(ids.stream().map(users::get).filter(u -> u != null).collect(Collectors.toList()));
+    }
+
+    @Override
+    public Set<Long> queryFollowedBigAuthors(Long userId) {
+        loadFollowsIfAbsent(userId);
+        // 关注的人和大V集合求交集，一条命令完成
+        Set<String> authors = stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, FEED_BIG_AUTHORS_KEY);
+        if (authors == null || authors.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return authors.stream().map(Long::valueOf).collect(Collectors.toSet());
+    }
+
+    @Override
+    public void pushToFollowers(Long authorId, Long blogId, long timestamp) {
+        try {
+            feedPushExecutor.execute(() -> {
+                try {
+                    doPushToFollowers(authorId, blogId, timestamp);
+                } catch (Exception e) {
+                    log.error("推送博文到粉丝收件箱失败，authorId={}, blogId={}", authorId, blogId, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.error("推送队列已满，放弃推送，authorId={}, blogId={}", authorId, blogId);
+        }
+    }
+
+    private void doPushToFollowers(Long authorId, Long blogId, long timestamp) {
+        // 1.粉丝太多的作者只写发件箱，标记为大V后由读取的用户拉取；一旦标记不再取消，避免已发的博文从粉丝的feed中消失
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_BIG_AUTHORS_KEY, authorId.toString()))) {
+            return;
+        }
+        Integer followers = query().eq("follow_user_id", authorId).count();
+        if (followers != null && followers >= pushThreshold) {
+            stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHORS_KEY, authorId.toString());
+            return;
+        }
+        // 2.按主键分批查询粉丝，每批的ZADD在一次pipeline中发送
+        String member = blogId.toString();
+        long lastId = 0;
+        while (true) {
+            List<Follow> batch = query().select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + pushBatchSize)
+                    .list();
+            if (batch.isEmpty()) {
+                break;
+            }
+            redisPipelineExecutor.pipeline("pushFeed", conn -> {
+                for (Follow follow : batch) {
+                    String key = FEED_KEY + follow.getUserId();
+                    conn.zAdd(key, timestamp, member);
+                    // 只保留最新的inboxMaxSize条
+                    conn.zRemRange(key, 0, -inboxMaxSize - 1);
+                }
+            });
+            lastId = batch.get(batch.size() - 1).getId();
+            if (batch.size() < pushBatchSize) {
+                break;
+            }
+        }
+    }
+
+    private boolean isFollowing(Long userId, Long followUserId) {
+        loadFollowsIfAbsent(userId);
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FOLLOWS_KEY + userId, followUserId.toString()));
+    }
+
+    // 关注集合不存在时从数据库加载，兼容上线前已有的关注数据
+    private void loadFollowsIfAbsent(Long userId) {
+        String key = FOLLOWS_KEY + userId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return;
+        }
+        List<Follow> follows = query().select("follow_user_id").eq("user_id", userId).list();
+        if (follows.isEmpty()) {
+            return;
+        }
+        List<String> ids = new ArrayList<>(follows.size());
+        for (Follow follow : follows) {
+            ids.add(follow.getFollowUserId().toString());
+        }
+        stringRedisTemplate.opsForSet().add(key, ids.toArray(new String[0]));
+    }
 
+    @PreDestroy
+    private void destroy() {
+        feedPushExecutor.shutdown();
+    }
 }
@@ -1,21 +1,45 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.PageCursor;
+import com.hmdp.utils.RedisPipelineExecutor;
+import com.hmdp.utils.ShopNameIndex;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Metrics;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.DEFAULT_PAGE_SIZE;
+import static com.hmdp.utils.SystemConstants.MAX_PAGE_SIZE;
 
 /**
  * <p>
@@ -25,8 +49,13 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
+    // 构建名称索引时每批查询的商铺数
+    private static final int NAME_INDEX_BATCH_SIZE = 1000;
+    // 名称搜索从索引查询时的游标类型
+    private static final String CURSOR_INDEX = "i";
 
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
@@ -34,18 +63,98 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Autowired
     private CacheClient cacheClient;
 
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+
+    @Autowired
+    private RedisPipelineExecutor redisPipelineExecutor;
+
+    @Autowired
+    private ShopNameIndex shopNameIndex;
+
+    // 需要预热的热点商铺id，以逗号分隔
+    @Value("${hmdp.cache.hot-shop-ids:}")
+    private String hotShopIds;
+
+    // 启动时是否把商铺坐标按类型写入redis GEO
+    @Value("${hmdp.shop.geo.load-on-startup:true}")
+    private boolean loadGeoOnStartup;
+    // 附近商铺的搜索半径
+    @Value("${hmdp.shop.geo.radius-km:5}")
+    private double geoRadiusKm;
+
+    @PostConstruct
+    private void loadShopGeo() {
+        if (!loadGeoOnStartup) {
+            return;
+        }
+        // 1.只查询需要的字段，按类型分组
+        List<Shop> shops = query().select("id", "type_id", "x", "y").list();
+        Map<Long, List<Shop>> shopsByType = shops.stream()
+                .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                .collect(Collectors.groupingBy(Shop::getTypeId));
+        // 2.每个类型一个GEO key，所有类型在一次pipeline中写入
+        redisPipelineExecutor.pipeline("loadShopGeo", conn -> shopsByType.forEach((typeId, list) -> {
+            List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(list.size());
+            for (Shop shop : list) {
+                locations.add(new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())));
+            }
+            conn.geoAdd(SHOP_GEO_KEY + typeId, locations);
+        }));
+        log.debug("商铺坐标加载完成，类型数={}, 商铺数={}", shopsByType.size(), shops.size());
+    }
+
+    @PostConstruct
+    private void buildNameIndex() {
+        if (!shopNameIndex.isEnabled()) {
+            return;
+        }
+        // 按主键分批查询名称和销量，避免一次把整张表读进内存
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = query().select("id", "name", "sold")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + NAME_INDEX_BATCH_SIZE)
+                    .list();
+            for (Shop shop : shops) {
+                shopNameIndex.put(shop.getId(), shop.getName(), shop.getSold());
+            }
+            if (shops.size() < NAME_INDEX_BATCH_SIZE) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        shopNameIndex.markReady();
+    }
+
+    @PostConstruct
+    private void preloadHotShops() {
+        if (StrUtil.isBlank(hotShopIds)) {
+            return;
+        }
+        List<Long> ids = StrUtil.split(hotShopIds, ',', true, true).stream()
+                .map(Long::valueOf)
+                .collect(Collectors.toList());
+        cacheClient.preload(CACHE_SHOP_LOGICAL, ids, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
     @Override
     public Result queryById(Long id) {
+        // 0.布隆过滤器判断不存在的id直接返回，不访问redis和数据库
+        if (!idBloomFilter.mightContainShop(id)) {
+            return Result.fail("shop is not find");
+        }
         // 1.从redis缓存中查找
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP + id);
-        if (StrUtil.isNotBlank(shopJson)) {
+        byte[] shopData = cacheClient.getRaw(CACHE_SHOP + id);
+        if (shopData != null && shopData.length > 0) {
             // 2.如果缓存中有则直接返回
             System.out.println("shop id 缓存命中");
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
+            Shop shop = cacheClient.decode(shopData, Shop.class);
             return Result.ok(shop);
         }
         // 2.1 如果缓存中是空值，也进行返回
-        if(shopJson != null){
+        if(shopData != null){
             return Result.fail("shop is not find");
         }
         // 3.缓存未命中则从数据库查找
@@ -53,11 +162,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 4.如果数据库未命中则返回错误信息
         if (shop == null){
             // 4.1 缓存空值，避免缓存穿透
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP+id, "",CACHE_NULL_TTL, TimeUnit.MINUTES);
+            cacheClient.setNull(CACHE_SHOP+id);
             return Result.fail("shop is not find");
         }
         // 5.数据库找到则放入缓存中并设置过期时间
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP+id, JSONUtil.toJsonStr(shop),CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        cacheClient.set(CACHE_SHOP+id, shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
         // 6.返回shop
         return Result.ok(shop);
@@ -65,6 +174,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     @Override
     public Result queryByIDWithCacheClient(Long id) {
+        if (!idBloomFilter.mightContainShop(id)) {
+            return Result.fail("shop is not find");
+        }
         Shop shop = cacheClient.getWithPassThrough(CACHE_SHOP + id, Shop.class, id, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null){
             return Result.fail("shop is not find");
@@ -72,19 +184,35 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    // 该方法用逻辑过期解决热点key问题：过期时返回旧数据，后台异步重建
+    public Result queryByIdWithLogicalExpire(Long id) {
+        if (!idBloomFilter.mightContainShop(id)) {
+            return Result.fail("shop is not find");
+        }
+        Shop shop = cacheClient.getWithLogicalExpire(CACHE_SHOP_LOGICAL + id, Shop.class, id, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if (shop == null){
+            return Result.fail("shop is not find");
+        }
+        return Result.ok(shop);
+    }
+
     @Override
     // 该方法实现互斥锁解决雪崩
     public Result queryByIdWithMutex(Long id) {
+        if (!idBloomFilter.mightContainShop(id)) {
+            return Result.fail("shop is not find");
+        }
         // 1.从redis缓存中查找
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP + id);
-        if (StrUtil.isNotBlank(shopJson)) {
+        byte[] shopData = cacheClient.getRaw(CACHE_SHOP + id);
+        if (shopData != null && shopData.length > 0) {
             // 2.如果缓存中有则直接返回
             System.out.println("shop id 缓存命中");
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
+            Shop shop = cacheClient.decode(shopData, Shop.class);
             return Result.ok(shop);
         }
         // 2.1 如果缓存中是空值，也进行返回
-        if(shopJson != null){
+        if(shopData != null){
             return Result.fail("shop is not find");
         }
 
@@ -97,9 +225,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             }
 
             // 3.2 拿到锁后也要判断是否别人已经重构过了（判断自己是否为等待线程）
-            shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP + id);
-            if (StrUtil.isNotBlank(shopJson)) {
-                shop = JSONUtil.toBean(shopJson, Shop.class);
+            shopData = cacheClient.getRaw(CACHE_SHOP + id);
+            if (shopData != null && shopData.length > 0) {
+                shop = cacheClient.decode(shopData, Shop.class);
                 return Result.ok(shop);
             }
 
@@ -107,11 +235,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             shop = getById(id);
             if (shop == null){
                 // 4.1 数据库没找到，重构失败，放入空值
-                stringRedisTemplate.opsForValue().set(CACHE_SHOP+id, "",CACHE_NULL_TTL, TimeUnit.MINUTES);
+                cacheClient.setNull(CACHE_SHOP+id);
                 return Result.fail("shop is not find");
             }
             // 5.数据库找到则放入缓存中并设置过期时间
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP+id, JSONUtil.toJsonStr(shop),CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            cacheClient.set(CACHE_SHOP+id, shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }finally {
@@ -123,6 +251,23 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1. 写入数据库
+        save(shop);
+        // 2. 新的id加入布隆过滤器
+        idBloomFilter.addShop(shop.getId());
+        // 3. 写入坐标，附近商铺可以查到
+        if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+            stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(),
+                    new Point(shop.getX(), shop.getY()), shop.getId().toString());
+        }
+        // 4. 名称加入搜索索引
+        shopNameIndex.publish(shop.getId(), shop.getName(), shop.getSold());
+        // 5. 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -131,14 +276,182 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("shop id is null");
         }
 
-        // 1. 更新数据库
+        // 1. 更新数据库，更新前查出旧的类型和坐标
+        Shop old = getById(id);
         updateById(shop);
-        // 2. 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP+id);
+        // 2. 删除缓存，并通知所有节点删除进程内缓存
+        cacheClient.evict(CACHE_SHOP+id, CACHE_SHOP_LOGICAL+id);
+        // 3. 类型或坐标变化时更新GEO
+        if (old != null) {
+            updateShopGeo(old, shop);
+        }
+        // 4. 名称或销量变化时更新搜索索引
+        if (old != null && (shop.getName() != null || shop.getSold() != null)) {
+            shopNameIndex.publish(id,
+                    shop.getName() != null ? shop.getName() : old.getName(),
+                    shop.getSold() != null ? shop.getSold() : old.getSold());
+        }
 
         return Result.ok();
     }
 
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        // 1.没有传坐标，按数据库分页查询，结果中不返回总数，不需要count
+        if (x == null || y == null) {
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, DEFAULT_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 2.计算分页参数
+        int from = (current - 1) * DEFAULT_PAGE_SIZE;
+        int end = current * DEFAULT_PAGE_SIZE;
+        // 3.按距离从近到远查出前end个商铺 GEORADIUS key x y radius km WITHDIST ASC COUNT end
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                SHOP_GEO_KEY + typeId,
+                new Circle(new Point(x, y), new Distance(geoRadiusKm, Metrics.KILOMETERS)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(end));
+        if (results == null || results.getContent().size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 4.截取from~end的部分
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> content = results.getContent()
+                .subList(from, results.getContent().size());
+        List<Long> ids = new ArrayList<>(content.size());
+        List<Double> distances = new ArrayList<>(content.size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : content) {
+            ids.add(Long.valueOf(result.getContent().getName()));
+            distances.add(result.getDistance().getValue());
+        }
+        // 5.一次查出所有商铺，再按距离的顺序排列
+        Map<Long, Shop> shopMap = listByIds(ids).stream()
+                .collect(Collectors.toMap(Shop::getId, Function.identity()));
+        List<Shop> shops = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Shop shop = shopMap.get(ids.get(i));
+            if (shop != null) {
+                shop.setDistance(distances.get(i));
+                shops.add(shop);
+            }
+        }
+        return Result.ok(shops);
+    }
+
+    @Override
+    public Result queryShopByTypeWithCursor(Integer typeId, String cursor) {
+        Long lastId;
+        try {
+            PageCursor c = PageCursor.decode(cursor);
+            lastId = c == null ? null : c.getLong(0);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("invalid cursor");
+        }
+        // where type_id = ? and id > 上一页最后的id order by id limit n，每一页都只扫描n行
+        List<Shop> shops = query()
+                .eq("type_id", typeId)
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("limit " + DEFAULT_PAGE_SIZE)
+                .list();
+        return Result.ok(toCursorResult(shops, DEFAULT_PAGE_SIZE));
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        // 页码来自请求参数，小于1时按第一页，和Page的处理一样
+        int pageNo = current == null || current < 1 ? 1 : current;
+        // 1.有关键字并且索引已经建好，从索引查询
+        if (StrUtil.isNotBlank(name) && shopNameIndex.isReady()) {
+            int from = (int) Math.min(Integer.MAX_VALUE, (long) (pageNo - 1) * MAX_PAGE_SIZE);
+            List<Long> ids = shopNameIndex.search(name, from, MAX_PAGE_SIZE);
+            return Result.ok(queryShopsInOrder(ids));
+        }
+        // 2.没有关键字时按数据库分页
+        Page<Shop> page = query()
+                .like(StrUtil.isNotBlank(name), "name", name)
+                .page(new Page<>(pageNo, MAX_PAGE_SIZE, false));
+        return Result.ok(page.getRecords());
+    }
+
+    @Override
+    public Result queryShopByNameWithCursor(String name, String cursor) {
+        boolean useIndex = StrUtil.isNotBlank(name) && shopNameIndex.isReady();
+        // 从索引查询时游标是 i:已经返回的条数；从数据库查询时是上一页最后的id
+        Long lastId = null;
+        int from = 0;
+        try {
+            PageCursor c = PageCursor.decode(cursor);
+            if (c != null && useIndex) {
+                if (!CURSOR_INDEX.equals(c.get(0))) {
+                    return Result.fail("invalid cursor");
+                }
+                from = (int) c.getLong(1);
+            } else if (c != null) {
+                lastId = c.getLong(0);
+            }
+        } catch (IllegalArgumentException e) {
+            return Result.fail("invalid cursor");
+        }
+        if (useIndex) {
+            List<Long> ids = shopNameIndex.search(name, from, MAX_PAGE_SIZE);
+            String next = ids.size() < MAX_PAGE_SIZE ? null : PageCursor.encode(CURSOR_INDEX, from + ids.size());
+            return Result.ok(CursorResult.of(queryShopsInOrder(ids), next));
+        }
+        List<Shop> shops = query()
+                .like(StrUtil.isNotBlank(name), "name", name)
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("limit " + MAX_PAGE_SIZE)
+                .list();
+        return Result.ok(toCursorResult(shops, MAX_PAGE_SIZE));
+    }
+
+    @Override
+    public Result suggestShopName(String prefix, Integer limit) {
+        if (!shopNameIndex.isReady()) {
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(shopNameIndex.suggest(prefix, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+
+    // 按索引返回的顺序，通过商铺缓存批量查询
+    private List<Shop> queryShopsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Shop> shops = cacheClient.getBatchWithPassThrough(CACHE_SHOP, ids, Shop.class,
+                batch -> listByIds(batch).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        return ids.stream().map(shops::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    // 不满一页说明没有更多数据了
+    private static CursorResult toCursorResult(List<Shop> shops, int pageSize) {
+        String next = shops.size() < pageSize ? null : PageCursor.encode(shops.get(shops.size() - 1).getId());
+        return CursorResult.of(shops, next);
+    }
+
+    private void updateShopGeo(Shop old, Shop shop) {
+        // updateById只更新不为null的字段，没有传的沿用旧值
+        Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+        Double x = shop.getX() != null ? shop.getX() : old.getX();
+        Double y = shop.getY() != null ? shop.getY() : old.getY();
+        boolean typeChanged = !Objects.equals(typeId, old.getTypeId());
+        if (!typeChanged && Objects.equals(x, old.getX()) && Objects.equals(y, old.getY())) {
+            return;
+        }
+        String member = old.getId().toString();
+        redisPipelineExecutor.pipeline("updateShopGeo", conn -> {
+            if (typeChanged && old.getTypeId() != null) {
+                conn.zRem(SHOP_GEO_KEY + old.getTypeId(), member);
+            }
+            if (typeId != null && x != null && y != null) {
+                conn.geoAdd(SHOP_GEO_KEY + typeId, new Point(x, y), member);
+            }
+        });
+    }
+
     private boolean tryLock(String lock){
         // 利用setnx命令来实现互斥锁的功能
         Boolean aBoolean = stringRedisTemplate.opsForValue().setIfAbsent(lock, "1", CACHE_SHOP_LOCK_TTL, TimeUnit.MINUTES);
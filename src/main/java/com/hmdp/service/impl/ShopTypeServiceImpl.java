@@ -1,14 +1,12 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -27,16 +25,16 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_LIST;
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+    private CacheClient cacheClient;
 
     @Override
     public Result getList() {
         // 1.尝试从缓存中获取
-        String shopTypeJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_LIST);
+        byte[] shopTypeData = cacheClient.getRaw(CACHE_SHOP_TYPE_LIST);
         // 2.如果命中则直接返回
-        if(StrUtil.isNotBlank(shopTypeJson)){
+        if(shopTypeData != null && shopTypeData.length > 0){
             System.out.println("shop type 缓存命中");
-            List<ShopType> shopType = JSONUtil.toList(shopTypeJson, ShopType.class);
+            List<ShopType> shopType = cacheClient.decodeList(shopTypeData, ShopType.class);
             return Result.ok(shopType);
         }
         // 3.未命中则从数据库查找
@@ -47,8 +45,7 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
         }
 
         // 5.数据库有则记录到缓存并返回
-        shopTypeJson = JSONUtil.toJsonStr(shopType);
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_LIST, shopTypeJson);
+        cacheClient.setList(CACHE_SHOP_TYPE_LIST, shopType, ShopType.class);
 
         return Result.ok(shopType);
     }
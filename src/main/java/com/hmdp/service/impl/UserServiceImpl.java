@@ -1,7 +1,6 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -10,17 +9,36 @@ import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
+import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.DauRecorder;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RedisPipelineExecutor;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -38,10 +56,35 @@ import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 @Slf4j
 @Service
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
+    private static final DateTimeFormatter SIGN_MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    // 一次最多查询的日活天数
+    private static final int MAX_DAU_DAYS = 31;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private LoginSessionCache loginSessionCache;
+
+    @Resource
+    private DauRecorder dauRecorder;
+
+    @Resource
+    private RedisPipelineExecutor redisPipelineExecutor;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private IUserInfoService userInfoService;
+
+    // 每天第一次签到奖励的积分，0表示不奖励
+    @Value("${hmdp.user.sign-credits:1}")
+    private int signCredits;
+    // 签到bitmap保留的天数
+    @Value("${hmdp.user.sign-retain-days:400}")
+    private long signRetainDays;
+
     @Override
     public Result sendCode(String phone) {
         // 1.校验手机号
@@ -90,20 +133,169 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         // 7.保存用户信息到 redis中--{randomToken,user}，并设置过期时间
         String uuid = UUID.randomUUID().toString();      //这里用random token作为key未必合理，只是暂且不考虑安全性，先这么用着
         UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> userDTOPropMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),CopyOptions.create().
-                setFieldValueEditor((fieldName, fieldValue)->{
-                    return fieldValue.toString();
-                }));
-
-        stringRedisTemplate.opsForHash().putAll(LOGIN_USER+uuid,userDTOPropMap);
+        Map<String, String> userDTOPropMap = new HashMap<>();
+        userDTOPropMap.put("id", userDTO.getId().toString());
+        userDTOPropMap.put("nickName", userDTO.getNickName());
+        if (userDTO.getIcon() != null) {
+            userDTOPropMap.put("icon", userDTO.getIcon());
+        }
 
-        // 7.1 设置user过期时间
-        stringRedisTemplate.expire(LOGIN_USER+uuid,LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 7.1 写入用户、设置过期时间、删除用过的验证码，在一个MULTI中一次发送
+        redisPipelineExecutor.transaction("login", conn -> {
+            conn.hMSet(LOGIN_USER + uuid, userDTOPropMap);
+            conn.expire(LOGIN_USER + uuid, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+            conn.del(LOGIN_CODE + phone);
+        });
+        loginSessionCache.onLogin(uuid, userDTO);
+        dauRecorder.record(userDTO.getId());
 
         // 8. 返回token
         return Result.ok(uuid);
     }
 
+    @Override
+    public Result logout(String token) {
+        if (token == null) {
+            return Result.ok();
+        }
+        // 删除会话，并通知所有节点删除缓存的用户信息
+        loginSessionCache.invalidate(token);
+        return Result.ok();
+    }
+
+    @Override
+    public Map<Long, UserDTO> queryUserSummaries(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return cacheClient.getBatchWithPassThrough(CACHE_USER, ids, UserDTO.class, this::loadUserSummaries,
+                CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    // 只查询摘要需要的字段
+    private Map<Long, UserDTO> loadUserSummaries(Collection<Long> ids) {
+        Map<Long, UserDTO> users = new HashMap<>(ids.size());
+        query().select("id", "nick_name", "icon").in("id", ids).list().forEach(user -> {
+            UserDTO userDTO = new UserDTO();
+            userDTO.setId(user.getId());
+            userDTO.setNickName(user.getNickName());
+            userDTO.setIcon(user.getIcon());
+            users.put(user.getId(), userDTO);
+        });
+        return users;
+    }
+
+    @Override
+    public Result sign() {
+        // 1.获取当前用户和日期
+        Long userId = UserHolder.getUser().getId();
+        LocalDate now = LocalDate.now();
+        String key = signKey(userId, YearMonth.from(now));
+        // 2.写入签到 SETBIT sign:userId:yyyyMM dayOfMonth-1 1，和EXPIRE一起发送
+        List<Object> results = redisPipelineExecutor.pipeline("sign", conn -> {
+            conn.setBit(key, now.getDayOfMonth() - 1, true);
+            conn.expire(key, TimeUnit.DAYS.toSeconds(signRetainDays));
+        });
+        // 3.SETBIT返回原来的值，原来是0说明今天第一次签到，奖励积分
+        if (!Boolean.TRUE.equals(results.get(0)) && signCredits > 0) {
+            userInfoService.update()
+                    .setSql("credits = credits + " + signCredits)
+                    .eq("user_id", userId)
+                    .update();
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result signStreak() {
+        // 1.获取当前用户和日期
+        Long userId = UserHolder.getUser().getId();
+        LocalDate now = LocalDate.now();
+        int day = now.getDayOfMonth();
+        YearMonth lastMonth = YearMonth.from(now).minusMonths(1);
+        int lastMonthDays = lastMonth.lengthOfMonth();
+        // 2.本月截止今天的签到和上个月整月的签到，作为无符号整数一次取回
+        //   BITFIELD sign:userId:yyyyMM GET u<day> 0，最低位是今天
+        List<Object> results = redisPipelineExecutor.pipeline("signStreak", conn -> {
+            conn.bitfield(signKey(userId, YearMonth.from(now)), BitFieldSubCommands.create()
+                    .get(BitFieldSubCommands.BitFieldType.unsigned(day)).valueAt(0));
+            conn.bitfield(signKey(userId, lastMonth), BitFieldSubCommands.create()
+                    .get(BitFieldSubCommands.BitFieldType.unsigned(lastMonthDays)).valueAt(0));
+        });
+        long bits = firstLong(results.get(0));
+        int days = day;
+        // 3.今天还没签到时从昨天开始算，今天签到后还能接上
+        if ((bits & 1) == 0) {
+            bits >>>= 1;
+            days--;
+        }
+        // 4.连续签到天数就是从最低位开始连续1的个数，本月全部签到时再接上上个月月底的连续天数
+        int streak = trailingOnes(bits, days);
+        if (streak == days) {
+            streak += trailingOnes(firstLong(results.get(1)), lastMonthDays);
+        }
+        return Result.ok(streak);
+    }
+
+    @Override
+    public Result signCount(String month) {
+        YearMonth yearMonth;
+        try {
+            yearMonth = month == null ? YearMonth.now() : YearMonth.parse(month, SIGN_MONTH_FORMAT);
+        } catch (DateTimeParseException e) {
+            return Result.fail("月份格式错误！");
+        }
+        // BITCOUNT sign:userId:yyyyMM
+        Long userId = UserHolder.getUser().getId();
+        String key = signKey(userId, yearMonth);
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.bitCount(key.getBytes(StandardCharsets.UTF_8)));
+        return Result.ok(count == null ? 0 : count);
+    }
+
+    @Override
+    public Result queryDau(String date, Integer days) {
+        LocalDate end;
+        try {
+            end = date == null ? LocalDate.now() : LocalDate.parse(date, DauRecorder.DAU_DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            return Result.fail("日期格式错误！");
+        }
+        // 每天一个bitmap，BITCOUNT就是当天的活跃用户数，所有天在一次pipeline中查询
+        List<String> dates = new ArrayList<>();
+        for (int i = 0; i < Math.min(Math.max(days, 1), MAX_DAU_DAYS); i++) {
+            dates.add(end.minusDays(i).format(DauRecorder.DAU_DATE_FORMAT));
+        }
+        List<Object> counts = redisPipelineExecutor.pipeline("dau", conn -> {
+            for (String d : dates) {
+                conn.bitCount(USER_DAU_KEY + d);
+            }
+        });
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < dates.size(); i++) {
+            result.put(dates.get(i), (Long) counts.get(i));
+        }
+        return Result.ok(result);
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(SIGN_MONTH_FORMAT);
+    }
+
+    // BITFIELD返回的是列表，key不存在时是0
+    private static long firstLong(Object result) {
+        if (!(result instanceof List) || ((List<?>) result).isEmpty()) {
+            return 0;
+        }
+        Object value = ((List<?>) result).get(0);
+        return value == null ? 0 : (Long) value;
+    }
+
+    // 从最低位开始连续1的个数，最多bits个
+    private static int trailingOnes(long value, int bits) {
+        return Math.min(Long.numberOfTrailingZeros(~value), Math.max(bits, 0));
+    }
+
     private User createUserWithPhone(String phone) {
         // 1.创建用户
         User user = new User();
@@ -1,33 +1,71 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.IDGenerator;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.RedisPipelineExecutor;
+import com.hmdp.utils.SeckillMetaCache;
+import com.hmdp.utils.SeckillStock;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
-import java.time.LocalDateTime;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DEAD_SUFFIX;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
 
 /**
  * <p>
@@ -49,37 +87,266 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
     @Autowired
     private RedissonClient redissonClient;
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+    @Autowired
+    private SeckillStock seckillStock;
+    @Autowired
+    private SeckillMetaCache seckillMetaCache;
+    @Autowired
+    private RedisPipelineExecutor redisPipelineExecutor;
 
-    private static DefaultRedisScript<Long> seckillScript;
-    static {
-        // 加载Lua脚本
-        seckillScript = new DefaultRedisScript<>();
-        seckillScript.setLocation(new ClassPathResource("buySeckillVoucher.lua"));
-        seckillScript.setResultType(Long.class);
-    }
+    // 批量落库的参数：每次最多读多少条、读不到消息时阻塞多久、几个线程同时落库
+    @Value("${hmdp.order.batch-size:200}")
+    private int batchSize;
+    @Value("${hmdp.order.block-ms:2000}")
+    private long blockMs;
+    @Value("${hmdp.order.workers:4}")
+    private int workers;
+    // 是否在本节点消费订单消息队列，只负责下单的节点或测试可以关闭
+    @Value("${hmdp.order.consumer-enabled:true}")
+    private boolean consumerEnabled;
+    // 消费者名字要在重启后保持不变，才能把自己pending-list里的订单重新处理掉
+    @Value("${hmdp.order.consumer-name:}")
+    private String consumerName;
+    @Value("${server.port:8080}")
+    private int serverPort;
+    // 其他消费者（宕机的节点、改名的节点、调小workers后不再运行的线程）读取后超过这个时间没有确认的订单由本节点接管
+    @Value("${hmdp.order.claim-min-idle-seconds:60}")
+    private long claimMinIdleSeconds;
+    @Value("${hmdp.order.claim-interval-seconds:30}")
+    private long claimIntervalSeconds;
+    // 订单最多投递的次数，接管时达到这个次数仍然没有确认的订单转入死信队列，不再重试
+    @Value("${hmdp.order.max-deliveries:5}")
+    private long maxDeliveries;
 
-    // 阻塞队列来存储要处理的订单
-    private final BlockingQueue<VoucherOrder> blockingQueue = new ArrayBlockingQueue<>(1024);
-    // 线程池来处理阻塞队列里的订单
-    private static final ExecutorService bqExecutor = Executors.newSingleThreadExecutor();
-    // 线程池要用到@Transactional注解的方法，所以需要代理对象；而代理对象的获取是通过threadLocal拿的，线程池本身拿不了，只能从成员变量拿
+    // 线程池来处理消息队列里的订单
+    private ExecutorService bqExecutor;
+    // 定时接管其他消费者pending-list中的订单
+    private ScheduledExecutorService claimExecutor;
+    // 线程池要用到@Transactional注解的方法，所以需要代理对象；启动时就要处理pending-list，等不到请求线程设置，所以懒加载注入代理对象
+    @Lazy
+    @Autowired
     private IVoucherOrderService proxy;
-    //  线程池处理订单的逻辑
+
+    // 落库统计：订单数、批次数、最大批次，用来观察吞吐和批次大小
+    private final LongAdder persistedOrders = new LongAdder();
+    private final LongAdder persistedBatches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder replayedOrders = new LongAdder();
+    private final LongAdder claimedOrders = new LongAdder();
+    private final LongAdder deadLetterOrders = new LongAdder();
+    // 逐条落库时数据库库存已经不足的订单数，说明数据库库存和redis库存不一致
+    private final LongAdder stockShortfall = new LongAdder();
+    private final AtomicInteger maxBatchSize = new AtomicInteger();
+    private final long startMillis = System.currentTimeMillis();
+
+    //  线程池处理订单的逻辑：从Redis Stream的消费组里批量读取订单并落库
     private class orderHandler implements Runnable {
+        private final Consumer consumer;
+        private final String stream;
+
+        private orderHandler(Consumer consumer, String stream) {
+            this.consumer = consumer;
+            this.stream = stream;
+        }
+
         @Override
         public void run() {
-            while (true) {
+            // 1. 启动时先处理上次没有确认的订单
+            handlePendingList(consumer, stream);
+            while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    // 1. 从阻塞队列来拿订单
-                    VoucherOrder order = blockingQueue.take();
-                    // 2. 在数据库完成对订单的处理
-                    proxy.createOrderInDB(order);
-
+                    // 2. 从消息队列读取新订单 XREADGROUP GROUP g1 c1 COUNT n BLOCK ms STREAMS stream.orders >
+                    List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                            consumer,
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMs)),
+                            StreamOffset.create(stream, ReadOffset.lastConsumed()));
+                    if (records == null || records.isEmpty()) {
+                        continue;
+                    }
+                    // 3. 在数据库完成对这一批订单的处理并确认
+                    handleRecords(stream, records);
                 } catch (Exception e) {
-                    throw new RuntimeException(e);
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    log.error("处理订单异常，stream={}", stream, e);
+                    handlePendingList(consumer, stream);
+                }
+            }
+        }
+    }
+
+    // 处理已经读取但是还没有确认的订单 XREADGROUP ... STREAMS stream.orders 0
+    private void handlePendingList(Consumer consumer, String stream) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(batchSize),
+                        StreamOffset.create(stream, ReadOffset.from("0")));
+                if (records == null || records.isEmpty()) {
+                    return;
+                }
+                replayedOrders.add(records.size());
+                if (handleRecords(stream, records) > 0) {
+                    // 仍然失败的订单留在pending-list，下次出错或者重启时再处理
+                    return;
+                }
+            } catch (Exception e) {
+                log.error("处理pending-list订单异常", e);
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+        }
+    }
+
+    // 接管消费组中空闲太久的订单 XPENDING stream g1 start + n，再 XCLAIM stream g1 本节点 min-idle ids
+    // XCLAIM带上min-idle，原来的消费者刚好在处理时不会被抢走；接管后仍然失败的订单留在本节点的pending-list，空闲够久后再次接管
+    // 每一页从上一页最后的id之后开始，前面反复失败的订单不会挡住后面宕机节点留下的订单；投递次数达到上限的订单转入死信队列
+    private void claimIdleOrders() {
+        String claimer = consumerName + "-claim";
+        Duration minIdle = Duration.ofSeconds(claimMinIdleSeconds);
+        for (String stream : seckillStock.orderStreams()) {
+            Range<String> range = Range.unbounded();
+            while (!Thread.currentThread().isInterrupted()) {
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(stream, SECKILL_ORDER_GROUP, range, batchSize);
+                if (pending.isEmpty()) {
+                    break;
+                }
+                List<RecordId> idleIds = new ArrayList<>();
+                Set<RecordId> deadIds = new HashSet<>();
+                RecordId lastId = null;
+                for (PendingMessage message : pending) {
+                    lastId = message.getId();
+                    if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                        continue;
+                    }
+                    idleIds.add(message.getId());
+                    if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                        deadIds.add(message.getId());
+                    }
+                }
+                if (!idleIds.isEmpty()) {
+                    handleClaimed(stream, claimer, minIdle, idleIds, deadIds);
+                }
+                if (pending.size() < batchSize) {
+                    break;
+                }
+                // 下一页从这一页最后的id之后开始，id是 毫秒-序号，序号加1就是下一个可能的id
+                range = Range.rightUnbounded(Range.Bound.inclusive(
+                        lastId.getTimestamp() + "-" + (lastId.getSequence() + 1)));
+            }
+        }
+    }
+
+    private void handleClaimed(String stream, String claimer, Duration minIdle,
+                               List<RecordId> idleIds, Set<RecordId> deadIds) {
+        List<StringRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                ((StringRedisConnection) connection).xClaim(stream, SECKILL_ORDER_GROUP, claimer,
+                        XClaimOptions.minIdle(minIdle).ids(idleIds.toArray(new RecordId[0]))));
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+        List<MapRecord<String, Object, Object>> records = new ArrayList<>(claimed.size());
+        List<StringRecord> dead = new ArrayList<>();
+        for (StringRecord record : claimed) {
+            if (deadIds.contains(record.getId())) {
+                dead.add(record);
+            } else {
+                records.add(MapRecord.create(stream, new HashMap<Object, Object>(record.getValue()))
+                        .withId(record.getId()));
+            }
+        }
+        if (!dead.isEmpty()) {
+            deadLetter(stream, dead);
+        }
+        if (!records.isEmpty()) {
+            claimedOrders.add(records.size());
+            // 仍然失败的订单留在pending-list，投递次数到上限后转入死信队列
+            handleRecords(stream, records);
+        }
+    }
+
+    // 反复落库失败的订单写入死信队列 stream:dead，保留原来的id，确认并从原队列删除，需要人工处理
+    private void deadLetter(String stream, List<StringRecord> records) {
+        String deadStream = stream + SECKILL_ORDER_DEAD_SUFFIX;
+        RecordId[] ids = new RecordId[records.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = records.get(i).getId();
+        }
+        redisPipelineExecutor.pipeline("orderDeadLetter", conn -> {
+            for (StringRecord record : records) {
+                Map<String, String> fields = new HashMap<>(record.getValue());
+                fields.put("sourceId", record.getId().getValue());
+                conn.xAdd(StreamRecords.string(fields).withStreamKey(deadStream));
+            }
+            conn.xAck(stream, SECKILL_ORDER_GROUP, ids);
+            conn.xDel(stream, ids);
+        });
+        deadLetterOrders.add(records.size());
+        for (StringRecord record : records) {
+            log.error("订单投递{}次仍然失败，转入死信队列 {}: id={}, order={}",
+                    maxDeliveries, deadStream, record.getId(), record.getValue());
+        }
+    }
+
+    // 落库并批量确认，返回仍然失败（没有确认）的订单数
+    private int handleRecords(String stream, List<MapRecord<String, Object, Object>> records) {
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        Set<VoucherOrder> failed = persistBatch(orders);
+
+        List<RecordId> ackIds = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            if (!failed.contains(orders.get(i))) {
+                ackIds.add(records.get(i).getId());
+            }
+        }
+        // 确认后同时删除，已经落库的订单不再占用redis内存，streamLength就是未处理的订单数
+        if (!ackIds.isEmpty()) {
+            RecordId[] ids = ackIds.toArray(new RecordId[0]);
+            redisPipelineExecutor.pipeline("orderAck", conn -> {
+                conn.xAck(stream, SECKILL_ORDER_GROUP, ids);
+                conn.xDel(stream, ids);
+            });
+        }
+        return failed.size();
+    }
+
+    // 返回没能落库的订单
+    private Set<VoucherOrder> persistBatch(List<VoucherOrder> batch) {
+        Set<VoucherOrder> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        try {
+            proxy.createOrdersInDB(batch);
+        } catch (Exception e) {
+            // 整批失败时退化成逐条处理，避免一条坏数据拖垮整批订单
+            failedBatches.increment();
+            log.error("批量创建订单失败，改为逐条处理，size={}", batch.size(), e);
+            for (VoucherOrder order : batch) {
+                try {
+                    proxy.createOrderInDB(order);
+                } catch (DuplicateKeyException ex) {
+                    // 订单已经落库但上次没来得及确认
+                    log.debug("订单已存在，order={}", order);
+                } catch (Exception ex) {
+                    log.error("订单处理失败，order={}", order, ex);
+                    failed.add(order);
                 }
             }
         }
+        persistedOrders.add(batch.size() - failed.size());
+        persistedBatches.increment();
+        maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+        return failed;
     }
 
     @Transactional
@@ -93,37 +360,135 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .gt("stock", 0)
                 .update();
         if (!success) {
-            log.debug("库存扣减失败");
+            // 订单已经在redis中扣过库存，不能丢，照常落库并记录数据库库存的缺口
+            stockShortfall.increment();
+            log.warn("数据库库存不足，订单照常创建，voucherId={}, orderId={}", voucherId, order.getId());
         }
 
         // 2. 创建购买秒杀券的订单
         save(order);
     }
 
+    @Override
+    @Transactional
+    public void createOrdersInDB(List<VoucherOrder> orders) {
+        // 1. 同一张券的订单合并成一条扣减语句：stock = stock - N
+        Map<Long, Integer> countByVoucher = new HashMap<>();
+        for (VoucherOrder order : orders) {
+            countByVoucher.merge(order.getVoucherId(), 1, Integer::sum);
+        }
+        countByVoucher.forEach((voucherId, count) -> {
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", count)
+                    .update();
+            // 库存不够整批扣减时回滚，由persistBatch逐条处理，能扣的库存照常扣减
+            if (!success) {
+                throw new IllegalStateException("库存不足以批量扣减，voucherId=" + voucherId + ", count=" + count);
+            }
+        });
+
+        // 2. 多行insert一次写入这一批订单
+        getBaseMapper().insertBatch(orders);
+    }
+
+    @Override
+    public Map<String, Object> getOrderStats() {
+        long orders = persistedOrders.sum();
+        long batches = persistedBatches.sum();
+        double seconds = Math.max(1, System.currentTimeMillis() - startMillis) / 1000.0;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long streamLength = 0;
+        for (String stream : seckillStock.orderStreams()) {
+            Long size = stringRedisTemplate.opsForStream().size(stream);
+            streamLength += size == null ? 0 : size;
+        }
+        stats.put("streamLength", streamLength);
+        stats.put("persistedOrders", orders);
+        stats.put("persistedBatches", batches);
+        stats.put("failedBatches", failedBatches.sum());
+        stats.put("replayedOrders", replayedOrders.sum());
+        stats.put("claimedOrders", claimedOrders.sum());
+        stats.put("deadLetterOrders", deadLetterOrders.sum());
+        stats.put("stockShortfall", stockShortfall.sum());
+        stats.put("avgBatchSize", batches == 0 ? 0 : (double) orders / batches);
+        stats.put("maxBatchSize", maxBatchSize.get());
+        stats.put("ordersPerSecond", orders / seconds);
+        return stats;
+    }
+
     @PostConstruct
     private void init(){
+        if (!consumerEnabled) {
+            return;
+        }
+        if (StrUtil.isBlank(consumerName)) {
+            consumerName = NetUtil.getLocalHostName() + "-" + serverPort;
+        }
+        // 原来的队列由workers个线程消费；开启库存分片时，每个分片的队列再各用一个线程消费
+        List<String> streams = seckillStock.orderStreams();
+        bqExecutor = Executors.newFixedThreadPool(workers + streams.size() - 1);
+        for (String stream : streams) {
+            // 创建消费组，stream不存在时一起创建 XGROUP CREATE stream.orders g1 0 MKSTREAM
+            createConsumerGroup(stream);
+            int threads = SECKILL_ORDER_STREAM.equals(stream) ? workers : 1;
+            // 类初始化时，线程池开始执行处理消息队列的任务
+            for (int i = 0; i < threads; i++) {
+                String name = SECKILL_ORDER_STREAM.equals(stream) ? consumerName + "-" + i : consumerName;
+                bqExecutor.submit(new orderHandler(Consumer.from(SECKILL_ORDER_GROUP, name), stream));
+            }
+        }
+        // 消费者名字变了的订单不会再被自己的pending-list处理，定时按空闲时间接管
+        claimExecutor = Executors.newSingleThreadScheduledExecutor();
+        claimExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                claimIdleOrders();
+            } catch (Exception e) {
+                log.error("接管空闲订单失败", e);
+            }
+        }, claimIntervalSeconds, claimIntervalSeconds, TimeUnit.SECONDS);
+    }
 
-        // 类初始化时，线程池开始执行处理阻塞的任务
-        bqExecutor.submit(new orderHandler());
+    private void createConsumerGroup(String stream) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    "CREATE".getBytes(StandardCharsets.UTF_8),
+                    stream.getBytes(StandardCharsets.UTF_8),
+                    SECKILL_ORDER_GROUP.getBytes(StandardCharsets.UTF_8),
+                    "0".getBytes(StandardCharsets.UTF_8),
+                    "MKSTREAM".getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            // 消费组已经存在
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (bqExecutor != null) {
+            bqExecutor.shutdownNow();
+        }
+        if (claimExecutor != null) {
+            claimExecutor.shutdownNow();
+        }
     }
 
     @Override
     public Result createOrder(long voucherID) {
-        // 1. 查询秒杀券是否在活动中
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherID);
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            // 1.1 活动未开始
-            return Result.fail("活动未开始");
+        // 0. 布隆过滤器拦截不存在的秒杀券
+        if (!idBloomFilter.mightContainVoucher(voucherID)) {
+            return Result.fail("秒杀券不存在");
         }
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
-            // 1.2 活动已经结束
-            return Result.fail("活动已经结束");
+        // 1. 查询秒杀券是否在活动中，活动时间缓存在内存中，不查数据库
+        String reason = seckillMetaCache.rejectReason(voucherID);
+        if (reason != null) {
+            return Result.fail(reason);
         }
 
-        // 2. 判断秒杀券是否还有库存
-        if (voucher.getStock() < 1){
-            return Result.fail("秒杀券已售完");
-        }
+        // 2. 库存由扣减语句中的 stock > 0 判断
 
         Long userID = UserHolder.getUser().getId();
 
@@ -196,34 +561,56 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     // 该方法使用redis+消息队列来优化createOrder方法
     @Override
     public Result createOrder2(long voucherID) {
+        // 0~1. 售罄、不存在、不在活动时间内的请求直接返回
+        String reason = seckillRejectReason(voucherID);
+        if (reason != null) {
+            return Result.fail(reason);
+        }
         Long userID = UserHolder.getUser().getId();
-        // 1. 执行Lua脚本，完成缓存中的扣减库存和添加订单
-        Long result = stringRedisTemplate.execute(seckillScript, Collections.emptyList(),
-                voucherID + "", userID.toString());
+        long orderID = idGenerator.nextID("voucher-order");
+        // 2. 执行Lua脚本，完成缓存中的扣减库存和添加订单，订单同时写入消息队列；开启分片时按用户选择库存分片
+        int r = seckillStock.buy(voucherID, userID, orderID);
 
         // 如果订单创建失败则返回错误信息
-        int r = result.intValue();
-        if (r != 0) {
-            return Result.fail(r == 1 ? "库存不足" : "每个用户只能购买一次");
+        if (r != SeckillStock.OK) {
+            return Result.fail(r == SeckillStock.SOLD_OUT ? "库存不足" : "每个用户只能购买一次");
         }
 
-        // 2. 创建消息队列，让线程池在数据库完成订单业务
-        // 2.1 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        long orderID = idGenerator.nextID("voucher-order");
-        voucherOrder.setId(orderID);
-        voucherOrder.setVoucherId((long) voucherID);
-        voucherOrder.setUserId(userID);
-        // 2.2 添加订单任务到阻塞队列，处理订单等线程池来做就行
-        blockingQueue.add(voucherOrder);
-        // 2.3 设置代理对象，为了让线程池能调用@Transactional注解的方法
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-
-        // 3. 返回订单ID
+        // 3. 订单已经在消息队列里，由线程池在数据库完成订单业务
+        // 4. 返回订单ID
         return Result.ok(orderID);
     }
 
+    // createOrder2的非阻塞版本：发号和执行脚本都用lettuce异步命令，servlet线程发出命令后立即返回
+    @Override
+    public CompletableFuture<Result> createOrderAsync(long voucherID) {
+        // 0~1. 和createOrder2一样在本节点判断
+        String reason = seckillRejectReason(voucherID);
+        if (reason != null) {
+            return CompletableFuture.completedFuture(Result.fail(reason));
+        }
+        // 用户在ThreadLocal中，分片数可能要同步查redis，都在servlet线程中取出
+        Long userID = UserHolder.getUser().getId();
+        int shards = seckillStock.shardsOf(voucherID);
+        // 2. 发号之后执行Lua脚本，回调在lettuce的IO线程中执行
+        return idGenerator.nextIDAsync("voucher-order")
+                .thenCompose(orderID -> seckillStock.buyAsync(voucherID, shards, userID, orderID)
+                        .thenApply(r -> r == SeckillStock.OK ? Result.ok(orderID)
+                                : Result.fail(r == SeckillStock.SOLD_OUT ? "库存不足" : "每个用户只能购买一次")));
+    }
 
-
+    // 本节点已知卖完、布隆过滤器判断不存在、不在活动时间内时返回原因，都不访问数据库
+    private String seckillRejectReason(long voucherID) {
+        // 本节点已知卖完的券直接返回，不访问redis
+        if (seckillStock.isSoldOut(voucherID)) {
+            return "库存不足";
+        }
+        // 0. 布隆过滤器拦截不存在的秒杀券
+        if (!idBloomFilter.mightContainVoucher(voucherID)) {
+            return "秒杀券不存在";
+        }
+        // 1. 判断是否在活动时间内并且已上架，在内存中判断
+        return seckillMetaCache.rejectReason(voucherID);
+    }
 
 }
@@ -7,16 +7,17 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.RedisPipelineExecutor;
+import com.hmdp.utils.SeckillMetaCache;
+import com.hmdp.utils.SeckillStock;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK;
-
 /**
  * <p>
  *  服务实现类
@@ -31,7 +32,13 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+    private RedisPipelineExecutor redisPipelineExecutor;
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+    @Autowired
+    private SeckillStock seckillStock;
+    @Autowired
+    private SeckillMetaCache seckillMetaCache;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -53,7 +60,32 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 将秒杀券库存信息进行缓存，方便秒杀券的购买操作
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK+seckillVoucher.getVoucherId(),seckillVoucher.getStock().toString());
+        redisPipelineExecutor.pipeline("addSeckillVoucher", conn -> {
+            // 将秒杀券库存信息进行缓存，方便秒杀券的购买操作；开启分片时库存拆到多个key
+            seckillStock.init(seckillVoucher.getVoucherId(), seckillVoucher.getStock(), conn);
+            // 活动时间和状态，下单时在内存中判断
+            seckillMetaCache.put(voucher, seckillVoucher, conn);
+            // 新的秒杀券id加入布隆过滤器
+            idBloomFilter.addVoucher(voucher.getId(), conn);
+        });
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充的库存必须大于0");
+        }
+        // 1. 增加数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        // 2. 增加redis库存，并清除所有节点的售罄标记
+        seckillStock.addStock(voucherId, count);
+        return Result.ok();
     }
 }
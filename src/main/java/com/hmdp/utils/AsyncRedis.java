@@ -0,0 +1,61 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * lettuce的异步命令，和StringRedisTemplate共用同一条原生连接，命令发出后立即返回，不占用调用线程
+ * 回调在lettuce的IO线程中执行，回调里只能继续发异步命令，不能调用StringRedisTemplate等同步方法，
+ * 否则IO线程等待自己要处理的响应，整条连接都会卡住
+ * 需要开启共享连接（spring默认开启），不共享时每次拿到的是独占连接，关闭后不能再用
+ */
+@Slf4j
+@Component
+public class AsyncRedis {
+    @Autowired
+    private LettuceConnectionFactory connectionFactory;
+
+    public RedisClusterAsyncCommands<byte[], byte[]> commands() {
+        if (!connectionFactory.getShareNativeConnection()) {
+            throw new IllegalStateException("异步命令需要共享的lettuce连接");
+        }
+        // 共享连接时返回共享连接的异步命令，关闭LettuceConnection不会关闭共享连接
+        RedisConnection connection = connectionFactory.getConnection();
+        try {
+            return ((LettuceConnection) connection).getNativeConnection();
+        } finally {
+            connection.close();
+        }
+    }
+
+    public CompletableFuture<Long> incr(String key) {
+        return commands().incr(bytes(key)).toCompletableFuture();
+    }
+
+    public CompletableFuture<Long> srem(String key, String member) {
+        return commands().srem(bytes(key), bytes(member)).toCompletableFuture();
+    }
+
+    /**
+     * 发布消息，不等待结果，失败只记录日志
+     */
+    public void publish(String channel, String message) {
+        commands().publish(bytes(channel), bytes(message)).whenComplete((r, e) -> {
+            if (e != null) {
+                log.warn("发布消息失败 channel={}: {}", channel, e.toString());
+            }
+        });
+    }
+
+    static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,437 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 紧凑的二进制格式，按字段顺序写入，不需要反射也不保存字段名
+ * 格式：[MAGIC][flags][类型id][字段...]，超过压缩阈值时字段部分用deflate压缩
+ * 时间按UTC写入秒数和纳秒，和节点的默认时区无关；没有FLAG_UTC_TIME的旧数据按默认时区的毫秒数读取
+ */
+public class BinaryCacheCodec implements CacheCodec {
+    // json以'{'、'['或'"'开头，用一个不可能出现在json开头的字节区分两种格式
+    public static final byte MAGIC = (byte) 0xB1;
+    private static final int FLAG_DEFLATE = 1;
+    private static final int FLAG_UTC_TIME = 2;
+    private static final int TYPE_LIST = 0;
+    // 只用来读取旧格式的时间
+    private static final ZoneId LEGACY_ZONE = ZoneId.systemDefault();
+
+    private final int compressThreshold;
+    private final Map<Class<?>, Integer> typeIds = new HashMap<>();
+    private final List<TypeCodec<?>> typeCodecs = new ArrayList<>();
+
+    public BinaryCacheCodec(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+        // 类型id一旦使用就不能修改，新类型只能追加在后面
+        typeCodecs.add(null);
+        register(Shop.class, BinaryCacheCodec::writeShop, BinaryCacheCodec::readShop);
+        register(ShopType.class, BinaryCacheCodec::writeShopType, BinaryCacheCodec::readShopType);
+        register(Voucher.class, BinaryCacheCodec::writeVoucher, BinaryCacheCodec::readVoucher);
+        register(UserDTO.class, BinaryCacheCodec::writeUser, BinaryCacheCodec::readUser);
+        register(RedisData.class, this::writeRedisData, this::readRedisData);
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return typeIds.containsKey(type);
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeTagged(out, value);
+            return frame(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] data, Class<T> type) {
+        try {
+            return type.cast(readTagged(unframe(data)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encodeList(List<?> values, Class<?> elementType) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 * values.size() + 8);
+            DataOutputStream out = new DataOutputStream(bytes);
+            int typeId = typeId(elementType);
+            TypeCodec<Object> codec = (TypeCodec<Object>) typeCodecs.get(typeId);
+            out.writeByte(TYPE_LIST);
+            out.writeByte(typeId);
+            out.writeInt(values.size());
+            for (Object value : values) {
+                codec.writer.write(out, value);
+            }
+            return frame(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] data, Class<T> elementType) {
+        try {
+            DataInputStream in = unframe(data);
+            if (in.readUnsignedByte() != TYPE_LIST) {
+                throw new IllegalArgumentException("cached value is not a list");
+            }
+            TypeCodec<?> codec = typeCodecs.get(in.readUnsignedByte());
+            int size = in.readInt();
+            List<T> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(elementType.cast(codec.reader.read(in)));
+            }
+            return values;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> void register(Class<T> type, Writer<T> writer, Reader<T> reader) {
+        typeIds.put(type, typeCodecs.size());
+        typeCodecs.add(new TypeCodec<>(writer, reader));
+    }
+
+    private int typeId(Class<?> type) {
+        Integer id = typeIds.get(type);
+        if (id == null) {
+            throw new IllegalArgumentException("unsupported cache type: " + type.getName());
+        }
+        return id;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeTagged(DataOutputStream out, Object value) throws IOException {
+        int typeId = typeId(value.getClass());
+        out.writeByte(typeId);
+        ((TypeCodec<Object>) typeCodecs.get(typeId)).writer.write(out, value);
+    }
+
+    private Object readTagged(DataInputStream in) throws IOException {
+        return typeCodecs.get(in.readUnsignedByte()).reader.read(in);
+    }
+
+    private byte[] frame(byte[] body) {
+        int flags = FLAG_UTC_TIME;
+        if (compressThreshold > 0 && body.length >= compressThreshold) {
+            byte[] compressed = deflate(body);
+            if (compressed.length < body.length) {
+                body = compressed;
+                flags |= FLAG_DEFLATE;
+            }
+        }
+        byte[] data = new byte[body.length + 2];
+        data[0] = MAGIC;
+        data[1] = (byte) flags;
+        System.arraycopy(body, 0, data, 2, body.length);
+        return data;
+    }
+
+    private CacheInput unframe(byte[] data) {
+        if (data.length < 2 || data[0] != MAGIC) {
+            throw new IllegalArgumentException("not a binary cache value");
+        }
+        byte[] body = new byte[data.length - 2];
+        System.arraycopy(data, 2, body, 0, body.length);
+        if ((data[1] & FLAG_DEFLATE) != 0) {
+            body = inflate(body);
+        }
+        return new CacheInput(body, (data[1] & FLAG_UTC_TIME) == 0);
+    }
+
+    private static byte[] deflate(byte[] body) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 16);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] body) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 3);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalArgumentException("truncated compressed cache value");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // ---------------- 各类型的字段顺序 ----------------
+
+    private static void writeShop(DataOutputStream out, Shop shop) throws IOException {
+        writeLong(out, shop.getId());
+        writeString(out, shop.getName());
+        writeLong(out, shop.getTypeId());
+        writeString(out, shop.getImages());
+        writeString(out, shop.getArea());
+        writeString(out, shop.getAddress());
+        writeDouble(out, shop.getX());
+        writeDouble(out, shop.getY());
+        writeLong(out, shop.getAvgPrice());
+        writeInt(out, shop.getSold());
+        writeInt(out, shop.getComments());
+        writeInt(out, shop.getScore());
+        writeString(out, shop.getOpenHours());
+        writeTime(out, shop.getCreateTime());
+        writeTime(out, shop.getUpdateTime());
+        writeDouble(out, shop.getDistance());
+    }
+
+    private static Shop readShop(DataInputStream in) throws IOException {
+        Shop shop = new Shop();
+        shop.setId(readLong(in));
+        shop.setName(readString(in));
+        shop.setTypeId(readLong(in));
+        shop.setImages(readString(in));
+        shop.setArea(readString(in));
+        shop.setAddress(readString(in));
+        shop.setX(readDouble(in));
+        shop.setY(readDouble(in));
+        shop.setAvgPrice(readLong(in));
+        shop.setSold(readInt(in));
+        shop.setComments(readInt(in));
+        shop.setScore(readInt(in));
+        shop.setOpenHours(readString(in));
+        shop.setCreateTime(readTime(in));
+        shop.setUpdateTime(readTime(in));
+        shop.setDistance(readDouble(in));
+        return shop;
+    }
+
+    private static void writeShopType(DataOutputStream out, ShopType shopType) throws IOException {
+        writeLong(out, shopType.getId());
+        writeString(out, shopType.getName());
+        writeString(out, shopType.getIcon());
+        writeInt(out, shopType.getSort());
+        writeTime(out, shopType.getCreateTime());
+        writeTime(out, shopType.getUpdateTime());
+    }
+
+    private static ShopType readShopType(DataInputStream in) throws IOException {
+        ShopType shopType = new ShopType();
+        shopType.setId(readLong(in));
+        shopType.setName(readString(in));
+        shopType.setIcon(readString(in));
+        shopType.setSort(readInt(in));
+        shopType.setCreateTime(readTime(in));
+        shopType.setUpdateTime(readTime(in));
+        return shopType;
+    }
+
+    private static void writeVoucher(DataOutputStream out, Voucher voucher) throws IOException {
+        writeLong(out, voucher.getId());
+        writeLong(out, voucher.getShopId());
+        writeString(out, voucher.getTitle());
+        writeString(out, voucher.getSubTitle());
+        writeString(out, voucher.getRules());
+        writeLong(out, voucher.getPayValue());
+        writeLong(out, voucher.getActualValue());
+        writeInt(out, voucher.getType());
+        writeInt(out, voucher.getStatus());
+        writeInt(out, voucher.getStock());
+        writeTime(out, voucher.getBeginTime());
+        writeTime(out, voucher.getEndTime());
+        writeTime(out, voucher.getCreateTime());
+        writeTime(out, voucher.getUpdateTime());
+    }
+
+    private static Voucher readVoucher(DataInputStream in) throws IOException {
+        Voucher voucher = new Voucher();
+        voucher.setId(readLong(in));
+        voucher.setShopId(readLong(in));
+        voucher.setTitle(readString(in));
+        voucher.setSubTitle(readString(in));
+        voucher.setRules(readString(in));
+        voucher.setPayValue(readLong(in));
+        voucher.setActualValue(readLong(in));
+        voucher.setType(readInt(in));
+        voucher.setStatus(readInt(in));
+        voucher.setStock(readInt(in));
+        voucher.setBeginTime(readTime(in));
+        voucher.setEndTime(readTime(in));
+        voucher.setCreateTime(readTime(in));
+        voucher.setUpdateTime(readTime(in));
+        return voucher;
+    }
+
+    private static void writeUser(DataOutputStream out, UserDTO user) throws IOException {
+        writeLong(out, user.getId());
+        writeString(out, user.getNickName());
+        writeString(out, user.getIcon());
+    }
+
+    private static UserDTO readUser(DataInputStream in) throws IOException {
+        UserDTO user = new UserDTO();
+        user.setId(readLong(in));
+        user.setNickName(readString(in));
+        user.setIcon(readString(in));
+        return user;
+    }
+
+    private void writeRedisData(DataOutputStream out, RedisData redisData) throws IOException {
+        writeTime(out, redisData.getExpireTime());
+        out.writeBoolean(redisData.getData() != null);
+        if (redisData.getData() != null) {
+            writeTagged(out, redisData.getData());
+        }
+    }
+
+    private RedisData readRedisData(DataInputStream in) throws IOException {
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(readTime(in));
+        if (in.readBoolean()) {
+            redisData.setData(readTagged(in));
+        }
+        return redisData;
+    }
+
+    // ---------------- 可以为null的字段，先写一个是否存在的标记 ----------------
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static void writeInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        if (((CacheInput) in).legacyTime) {
+            Long millis = readLong(in);
+            return millis == null ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), LEGACY_ZONE);
+        }
+        return in.readBoolean() ? LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC) : null;
+    }
+
+    // 带上数据格式的版本，读取时间字段时用
+    private static class CacheInput extends DataInputStream {
+        private final boolean legacyTime;
+
+        private CacheInput(byte[] body, boolean legacyTime) {
+            super(new ByteArrayInputStream(body));
+            this.legacyTime = legacyTime;
+        }
+    }
+
+    private interface Writer<T> {
+        void write(DataOutputStream out, T value) throws IOException;
+    }
+
+    private interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private static class TypeCodec<T> {
+        private final Writer<T> writer;
+        private final Reader<T> reader;
+
+        private TypeCodec(Writer<T> writer, Reader<T> reader) {
+            this.writer = writer;
+            this.reader = reader;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+/**
+ * 布隆过滤器：判断为不存在的id一定不存在，判断为存在的id有一定误判率
+ */
+public abstract class BloomFilter {
+    // 位数组长度
+    protected final long numBits;
+    // 哈希函数个数
+    protected final int numHashFunctions;
+    protected final long expectedInsertions;
+
+    protected BloomFilter(long expectedInsertions, double fpp) {
+        this.expectedInsertions = Math.max(1, expectedInsertions);
+        // m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+        this.numBits = Math.max(64, (long) Math.ceil(-this.expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / this.expectedInsertions * Math.log(2)));
+    }
+
+    public abstract void put(long id);
+
+    public abstract boolean mightContain(long id);
+
+    // 位数组中已经置为1的位数
+    public abstract long bitCount();
+
+    public long memoryBytes() {
+        return (numBits + 7) / 8;
+    }
+
+    // 当前的误判率：随机一个id的k个位都恰好为1的概率
+    public double estimatedFpp() {
+        return Math.pow((double) bitCount() / numBits, numHashFunctions);
+    }
+
+    public long getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashFunctions() {
+        return numHashFunctions;
+    }
+
+    public long getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    // 双重哈希：第i个位置 = h1 + i * h2
+    protected long[] offsets(long id) {
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        long[] offsets = new long[numHashFunctions];
+        for (int i = 0; i < numHashFunctions; i++) {
+            offsets[i] = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+        }
+        return offsets;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+}
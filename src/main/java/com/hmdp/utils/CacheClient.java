@@ -1,57 +1,401 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
-import com.hmdp.dto.Result;
-import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import static com.hmdp.utils.RedisConstants.*;
 
+@Slf4j
 @Component
 public class CacheClient {
+    // 重建逻辑过期缓存的线程池，队列有界，排不上队的重建直接放弃，下次读到过期数据时再试
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = new ThreadPoolExecutor(4, 4,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1024));
+
+    private static final String UNLOCK_SCRIPT = "unlock";
+
+    // 空字节数组表示数据库中也没有这条数据
+    private static final byte[] NULL_VALUE = new byte[0];
+
     StringRedisTemplate stringRedisTemplate;
+    // 缓存的value是编码后的字节
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+    private final CacheCodecs codecs;
+    private final RedisPipelineExecutor pipelineExecutor;
+    private final RedisScripts redisScripts;
+
+    // 进程内的一级缓存，为null时表示没有开启
+    private final LocalCache localCache;
+    // 一级缓存的过期时间，要比redis的过期时间短
+    private final long localTtlMillis;
+    // 缓存未命中时合并同一个key的并发加载
+    private final SingleFlight singleFlight = new SingleFlight();
+    // 是否再用redis锁在节点之间合并加载，开启后整个集群每个key只有一个线程查数据库
+    private final boolean distributedSingleFlight;
 
     @Autowired
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisTemplate<String, byte[]> byteRedisTemplate,
+                       CacheCodecs codecs,
+                       RedisPipelineExecutor pipelineExecutor,
+                       RedisScripts redisScripts,
+                       @Value("${hmdp.cache.local.enabled:false}") boolean localEnabled,
+                       @Value("${hmdp.cache.local.max-size:10000}") int localMaxSize,
+                       @Value("${hmdp.cache.local.ttl-seconds:60}") long localTtlSeconds,
+                       @Value("${hmdp.cache.single-flight.distributed:false}") boolean distributedSingleFlight) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.codecs = codecs;
+        this.pipelineExecutor = pipelineExecutor;
+        this.redisScripts = redisScripts;
+        this.localCache = localEnabled ? new LocalCache(localMaxSize) : null;
+        this.localTtlMillis = TimeUnit.SECONDS.toMillis(localTtlSeconds);
+        this.distributedSingleFlight = distributedSingleFlight;
     }
 
     public void set(String key, Object value, long expire, TimeUnit timeUnit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),expire,timeUnit);
+        byteRedisTemplate.opsForValue().set(key, codecs.encode(value), expire, timeUnit);
+    }
+
+    public void set(String key, Object value) {
+        byteRedisTemplate.opsForValue().set(key, codecs.encode(value));
+    }
+
+    public void setList(String key, List<?> values, Class<?> elementType) {
+        byteRedisTemplate.opsForValue().set(key, codecs.encodeList(values, elementType));
+    }
+
+    /**
+     * 缓存空值，避免缓存穿透
+     */
+    public void setNull(String key) {
+        byteRedisTemplate.opsForValue().set(key, NULL_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 读取原始字节：null表示未命中，空数组表示缓存的空值，其他用decode解码
+     */
+    public byte[] getRaw(String key) {
+        return byteRedisTemplate.opsForValue().get(key);
+    }
+
+    public <R> R decode(byte[] data, Class<R> resultType) {
+        return isEmpty(data) ? null : codecs.decode(data, resultType);
+    }
+
+    public <R> List<R> decodeList(byte[] data, Class<R> elementType) {
+        return isEmpty(data) ? null : codecs.decodeList(data, elementType);
+    }
+
+    private static boolean isEmpty(byte[] data) {
+        return data == null || data.length == 0;
     }
 
     public <R,I> R getWithPassThrough(String key, Class<R> resultType, I dbID, Function<I,R> dbQueryFunction,
                                       long expire, TimeUnit timeUnit){
+        // 0.先从进程内缓存查找，命中时不需要访问redis也不需要反序列化
+        if (localCache != null) {
+            R value = localCache.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
         // 1.从redis缓存中查找
-        String valueJson = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(valueJson)) {
+        byte[] data = getRaw(key);
+        if (!isEmpty(data)) {
             // 2.如果缓存中有则直接返回
             System.out.println(key + "缓存命中");
-            R value = JSONUtil.toBean(valueJson, resultType);
+            R value = codecs.decode(data, resultType);
+            putLocal(key, value, expire, timeUnit);
             return value;
         }
         // 2.1 如果缓存中是空值，也进行返回
-        if(valueJson != null){
+        if(data != null){
             return null;
         }
-        // 3.缓存未命中则从数据库查找
+        // 3.缓存未命中则从数据库查找，同一个key的并发请求只有一个会去查数据库
+        return singleFlight.execute(key, () -> distributedSingleFlight
+                ? loadWithLock(key, resultType, dbID, dbQueryFunction, expire, timeUnit)
+                : loadWithPassThrough(key, dbID, dbQueryFunction, expire, timeUnit));
+    }
+
+    /**
+     * 批量查询：先查进程内缓存，再用一次MGET查redis，剩下未命中的id用一次批量查询从数据库加载并写回缓存
+     * @param batchQueryFunction 根据一批id查询数据库，返回id到数据的映射，查不到的id不需要放进去
+     * @return id到数据的映射，缓存和数据库都没有的id不在结果中
+     */
+    public <R,I> Map<I,R> getBatchWithPassThrough(String keyPrefix, Collection<I> dbIDs, Class<R> resultType,
+                                                  Function<Collection<I>, Map<I,R>> batchQueryFunction,
+                                                  long expire, TimeUnit timeUnit) {
+        Map<I,R> result = new HashMap<>();
+        // 1.去重，并从进程内缓存查找
+        List<I> remaining = new ArrayList<>();
+        for (I dbID : new LinkedHashSet<>(dbIDs)) {
+            R value = localCache == null ? null : localCache.get(keyPrefix + dbID);
+            if (value != null) {
+                result.put(dbID, value);
+            } else {
+                remaining.add(dbID);
+            }
+        }
+        if (remaining.isEmpty()) {
+            return result;
+        }
+        // 2.一次MGET查询redis
+        List<String> keys = new ArrayList<>(remaining.size());
+        for (I dbID : remaining) {
+            keys.add(keyPrefix + dbID);
+        }
+        List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(keys);
+        List<I> misses = new ArrayList<>();
+        for (int i = 0; i < remaining.size(); i++) {
+            byte[] data = values == null ? null : values.get(i);
+            if (data == null) {
+                misses.add(remaining.get(i));
+            } else if (!isEmpty(data)) {
+                // 空值说明数据库中也没有，不需要再查
+                R value = codecs.decode(data, resultType);
+                putLocal(keys.get(i), value, expire, timeUnit);
+                result.put(remaining.get(i), value);
+            }
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
+        // 3.未命中的id一次查询数据库
+        Map<I,R> dbValues = batchQueryFunction.apply(misses);
+        // 4.写回缓存，查不到的id缓存空值，所有SET在一次pipeline中发送
+        Map<byte[], byte[]> toWrite = new HashMap<>();
+        Map<byte[], byte[]> nulls = new HashMap<>();
+        for (I dbID : misses) {
+            R value = dbValues.get(dbID);
+            byte[] key = (keyPrefix + dbID).getBytes(StandardCharsets.UTF_8);
+            if (value == null) {
+                nulls.put(key, NULL_VALUE);
+                continue;
+            }
+            toWrite.put(key, codecs.encode(value));
+            putLocal(keyPrefix + dbID, value, expire, timeUnit);
+            result.put(dbID, value);
+        }
+        Expiration expiration = Expiration.from(expire, timeUnit);
+        Expiration nullExpiration = Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES);
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            toWrite.forEach((key, value) -> connection.stringCommands()
+                    .set(key, value, expiration, RedisStringCommands.SetOption.upsert()));
+            nulls.forEach((key, value) -> connection.stringCommands()
+                    .set(key, value, nullExpiration, RedisStringCommands.SetOption.upsert()));
+            return null;
+        });
+        return result;
+    }
+
+    private <R,I> R loadWithPassThrough(String key, I dbID, Function<I,R> dbQueryFunction,
+                                        long expire, TimeUnit timeUnit) {
         R dbValue = dbQueryFunction.apply(dbID);
         // 4.如果数据库未命中则返回null
         if (dbValue == null){
             // 4.1 缓存空值，避免缓存穿透
-            stringRedisTemplate.opsForValue().set(key, "",CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setNull(key);
             return null;
         }
         // 5.数据库找到则放入缓存中并设置过期时间
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(dbValue),expire, timeUnit);
+        set(key, dbValue, expire, timeUnit);
+        putLocal(key, dbValue, expire, timeUnit);
 
         // 6.返回value
         return dbValue;
     }
+
+    // 节点之间也合并加载：拿到锁的节点查数据库，其他节点等它写好缓存后直接读缓存
+    private <R,I> R loadWithLock(String key, Class<R> resultType, I dbID, Function<I,R> dbQueryFunction,
+                                 long expire, TimeUnit timeUnit) {
+        String lockKey = LOCK_PREFIX + key;
+        String token = UUID.randomUUID().toString(true);
+        for (int i = 0; i < SINGLE_FLIGHT_MAX_RETRIES; i++) {
+            if (tryLock(lockKey, token)) {
+                try {
+                    // 拿到锁后再确认一次，可能别的节点刚刚写好了缓存
+                    byte[] data = getRaw(key);
+                    if (data != null) {
+                        return decodeAndPutLocal(key, data, resultType, expire, timeUnit);
+                    }
+                    return loadWithPassThrough(key, dbID, dbQueryFunction, expire, timeUnit);
+                } finally {
+                    unlock(lockKey, token);
+                }
+            }
+            // 没拿到锁，稍等一下再看缓存
+            try {
+                Thread.sleep(SINGLE_FLIGHT_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            byte[] data = getRaw(key);
+            if (data != null) {
+                return decodeAndPutLocal(key, data, resultType, expire, timeUnit);
+            }
+        }
+        // 等太久了，不再等别的节点，自己查数据库
+        return loadWithPassThrough(key, dbID, dbQueryFunction, expire, timeUnit);
+    }
+
+    private <R> R decodeAndPutLocal(String key, byte[] data, Class<R> resultType, long expire, TimeUnit timeUnit) {
+        if (isEmpty(data)) {
+            return null;
+        }
+        R value = codecs.decode(data, resultType);
+        putLocal(key, value, expire, timeUnit);
+        return value;
+    }
+
+    public void setWithLogicalExpire(String key, Object value, long expire, TimeUnit timeUnit) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(expire)));
+        // 不设置redis过期时间，数据是否过期由expireTime判断
+        set(key, redisData);
+    }
+
+    /**
+     * 逻辑过期读取：数据过期时直接返回旧数据，同时由一个线程在后台重建，调用方不需要等待
+     */
+    public <R,I> R getWithLogicalExpire(String key, Class<R> resultType, I dbID, Function<I,R> dbQueryFunction,
+                                        long expire, TimeUnit timeUnit){
+        // 1.从redis缓存中查找
+        byte[] data = getRaw(key);
+        // 2.缓存未命中，说明还没有预热或者已经被删除，同步加载一次
+        if (data == null) {
+            return loadWithLogicalExpire(key, dbID, dbQueryFunction, expire, timeUnit);
+        }
+        // 2.1 如果缓存中是空值，说明数据库中也没有
+        if (isEmpty(data)) {
+            return null;
+        }
+        // 3.命中则反序列化，json格式里的data是JSONObject，binary格式里已经是实体对象
+        RedisData redisData = codecs.decode(data, RedisData.class);
+        Object cached = redisData.getData();
+        R value = cached instanceof JSONObject ? JSONUtil.toBean((JSONObject) cached, resultType) : resultType.cast(cached);
+        // 4.没有过期则直接返回
+        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            return value;
+        }
+        // 5.已经过期，拿到锁的线程交给线程池重建缓存
+        String lockKey = LOCK_PREFIX + key;
+        String token = UUID.randomUUID().toString(true);
+        if (tryLock(lockKey, token)) {
+            try {
+                CACHE_REBUILD_EXECUTOR.execute(() -> {
+                    try {
+                        loadWithLogicalExpire(key, dbID, dbQueryFunction, expire, timeUnit);
+                    } catch (Exception e) {
+                        log.error("缓存重建失败，key={}", key, e);
+                    } finally {
+                        unlock(lockKey, token);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                unlock(lockKey, token);
+            }
+        }
+        // 6.不管有没有拿到锁，都直接返回旧数据
+        return value;
+    }
+
+    /**
+     * 缓存预热：从数据库查出数据，以逻辑过期的方式写入redis
+     */
+    public <R,I> void preload(String keyPrefix, Collection<I> dbIDs, Function<I,R> dbQueryFunction,
+                              long expire, TimeUnit timeUnit) {
+        for (I dbID : dbIDs) {
+            loadWithLogicalExpire(keyPrefix + dbID, dbID, dbQueryFunction, expire, timeUnit);
+        }
+    }
+
+    private <R,I> R loadWithLogicalExpire(String key, I dbID, Function<I,R> dbQueryFunction,
+                                          long expire, TimeUnit timeUnit) {
+        R dbValue = dbQueryFunction.apply(dbID);
+        if (dbValue == null) {
+            // 缓存空值，避免缓存穿透
+            setNull(key);
+            return null;
+        }
+        setWithLogicalExpire(key, dbValue, expire, timeUnit);
+        return dbValue;
+    }
+
+    // 锁的值是持有者的token，释放时校验token，避免删掉别人的锁
+    private boolean tryLock(String lockKey, String token) {
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, token, CACHE_REBUILD_LOCK_TTL, TimeUnit.SECONDS);
+        return Boolean.TRUE.equals(locked);
+    }
+
+    private void unlock(String lockKey, String token) {
+        redisScripts.execute(UNLOCK_SCRIPT, Long.class, Collections.singletonList(lockKey), token);
+    }
+
+    /**
+     * 删除redis中的缓存，并通知所有节点删除进程内缓存，所有key的DEL和PUBLISH在一次pipeline中发送
+     */
+    public void evict(String... keys) {
+        pipelineExecutor.pipeline("cacheEvict", conn -> {
+            for (String key : keys) {
+                conn.del(key);
+                conn.publish(CACHE_INVALIDATE_CHANNEL, key);
+            }
+        });
+        for (String key : keys) {
+            evictLocal(key);
+        }
+    }
+
+    /**
+     * 只删除本节点的进程内缓存，收到失效广播时调用
+     */
+    public void evictLocal(String key) {
+        if (localCache != null) {
+            localCache.remove(key);
+        }
+    }
+
+    public Map<String, Map<String, Long>> localCacheStats() {
+        return localCache == null ? Collections.emptyMap() : localCache.stats();
+    }
+
+    public Map<String, Object> singleFlightStats() {
+        return singleFlight.stats();
+    }
+
+    private void putLocal(String key, Object value, long expire, TimeUnit timeUnit) {
+        if (localCache != null) {
+            localCache.put(key, value, Math.min(localTtlMillis, timeUnit.toMillis(expire)));
+        }
+    }
 }
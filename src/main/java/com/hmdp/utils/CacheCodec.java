@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 缓存数据的编解码方式，redis中保存的是encode之后的字节
+ */
+public interface CacheCodec {
+
+    /**
+     * 是否能编码这个类型的对象
+     */
+    boolean supports(Class<?> type);
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] data, Class<T> type);
+
+    byte[] encodeList(List<?> values, Class<?> elementType);
+
+    <T> List<T> decodeList(byte[] data, Class<T> elementType);
+}
@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 选择缓存的编码方式
+ * 写入时按配置使用binary或json，binary不支持的类型退回json；
+ * 读取时根据第一个字节判断格式，所以切换配置后redis中已有的json数据仍然可以读
+ */
+@Component
+public class CacheCodecs {
+    public static final String TYPE_JSON = "json";
+    public static final String TYPE_BINARY = "binary";
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+    private final BinaryCacheCodec binaryCodec;
+    private final boolean writeBinary;
+
+    public CacheCodecs(@Value("${hmdp.cache.codec.type:json}") String type,
+                       @Value("${hmdp.cache.codec.compress-threshold:1024}") int compressThreshold) {
+        this.binaryCodec = new BinaryCacheCodec(compressThreshold);
+        this.writeBinary = TYPE_BINARY.equals(type);
+    }
+
+    public byte[] encode(Object value) {
+        return writer(value).encode(value);
+    }
+
+    public byte[] encodeList(List<?> values, Class<?> elementType) {
+        CacheCodec codec = writeBinary && binaryCodec.supports(elementType) ? binaryCodec : jsonCodec;
+        return codec.encodeList(values, elementType);
+    }
+
+    public <T> T decode(byte[] data, Class<T> type) {
+        return reader(data).decode(data, type);
+    }
+
+    public <T> List<T> decodeList(byte[] data, Class<T> elementType) {
+        return reader(data).decodeList(data, elementType);
+    }
+
+    private CacheCodec writer(Object value) {
+        if (!writeBinary || !binaryCodec.supports(value.getClass())) {
+            return jsonCodec;
+        }
+        // 逻辑过期的包装对象，里面的数据也要是binary支持的类型
+        if (value instanceof RedisData) {
+            Object data = ((RedisData) value).getData();
+            if (data != null && !binaryCodec.supports(data.getClass())) {
+                return jsonCodec;
+            }
+        }
+        return binaryCodec;
+    }
+
+    private CacheCodec reader(byte[] data) {
+        return data.length > 0 && data[0] == BinaryCacheCodec.MAGIC ? binaryCodec : jsonCodec;
+    }
+}
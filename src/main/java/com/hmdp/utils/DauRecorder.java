@@ -0,0 +1,155 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.USER_DAU_KEY;
+
+/**
+ * 日活(DAU)记录
+ * 1.每天一个bitmap dau:yyyyMMdd，当天访问过的用户以用户id为偏移量置1
+ * 2.访问只记录在进程内的缓冲区，同一个用户每天每个节点只记录一次，后台定时用pipeline批量发出SETBIT，请求不等待redis
+ */
+@Slf4j
+@Component
+public class DauRecorder {
+    public static final DateTimeFormatter DAU_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    @Autowired
+    private RedisPipelineExecutor redisPipelineExecutor;
+
+    @Value("${hmdp.dau.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.dau.flush-interval-seconds:5}")
+    private long flushIntervalSeconds;
+    // 日活bitmap保留的天数
+    @Value("${hmdp.dau.retain-days:90}")
+    private long retainDays;
+
+    // 今天已经记录过的用户，换天时清空
+    private volatile String activeDay = today();
+    private volatile Set<Long> marked = ConcurrentHashMap.newKeySet();
+    // 日期 -> 等待下一次批量写入bitmap的用户，跨天时前一天的用户仍然写入前一天的bitmap
+    private final Map<String, Set<Long>> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        flushExecutor.scheduleWithFixedDelay(this::flushSafely,
+                flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 记录用户今天访问过，只写进程内缓冲区
+     */
+    public void record(Long userId) {
+        if (!enabled || userId == null) {
+            return;
+        }
+        String day = today();
+        if (!day.equals(activeDay)) {
+            activeDay = day;
+            marked = ConcurrentHashMap.newKeySet();
+        }
+        if (marked.add(userId)) {
+            recorded.increment();
+            pending.computeIfAbsent(day, k -> ConcurrentHashMap.newKeySet()).add(userId);
+        }
+    }
+
+    private static String today() {
+        return LocalDate.now().format(DAU_DATE_FORMAT);
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("写入日活失败", e);
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        // 1.取出每天要记录的用户
+        Map<String, List<Long>> batch = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<Long>> entry : pending.entrySet()) {
+            List<Long> users = new ArrayList<>(entry.getValue().size());
+            for (Long userId : entry.getValue()) {
+                if (entry.getValue().remove(userId)) {
+                    users.add(userId);
+                }
+            }
+            if (!users.isEmpty()) {
+                batch.put(entry.getKey(), users);
+            }
+        }
+        // 已经过去的日期不会再有新用户，取完后删除
+        String day = today();
+        pending.entrySet().removeIf(entry -> !entry.getKey().equals(day) && entry.getValue().isEmpty());
+        if (batch.isEmpty()) {
+            return;
+        }
+        // 2.所有SETBIT和EXPIRE在一次pipeline中发送，失败时放回缓冲区，下次再写
+        long expireSeconds = TimeUnit.DAYS.toSeconds(retainDays);
+        try {
+            redisPipelineExecutor.pipeline("dauFlush", conn -> batch.forEach((d, users) -> {
+                String key = USER_DAU_KEY + d;
+                for (Long userId : users) {
+                    conn.setBit(key, userId, true);
+                }
+                conn.expire(key, expireSeconds);
+            }));
+        } catch (RuntimeException e) {
+            batch.forEach((d, users) -> pending.computeIfAbsent(d, k -> ConcurrentHashMap.newKeySet()).addAll(users));
+            throw e;
+        }
+        batch.values().forEach(users -> sent.add(users.size()));
+        flushes.increment();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("recorded", recorded.sum());
+        stats.put("sent", sent.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("pending", pending.values().stream().mapToInt(Set::size).sum());
+        return stats;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        flushExecutor.shutdown();
+        // 关闭前把缓冲区中的用户写入redis
+        if (enabled) {
+            flushSafely();
+        }
+    }
+}
@@ -1,27 +1,60 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.date.DateTime;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.time.LocalDate;
-import java.time.Period;
-import java.util.Date;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
 public class IDGenerator {
+    private static final LocalDate START_DATE = LocalDate.of(2024, 12, 1);
+
     @Autowired
     StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    AsyncRedis asyncRedis;
+
+    // 号段模式：每次用INCRBY从redis领取一段序列号，在内存里发号
+    @Value("${hmdp.id.segment-enabled:false}")
+    private boolean segmentEnabled;
+    @Value("${hmdp.id.segment-step:1000}")
+    private int segmentStep;
+    // 当前号段用掉多少比例时，后台预取下一段
+    @Value("${hmdp.id.prefetch-ratio:0.2}")
+    private double prefetchRatio;
+
+    private final ConcurrentHashMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
 
     public long nextID(String keyType){
+        return segmentEnabled ? nextIDBySegment(keyType) : nextIDByRedis(keyType);
+    }
+
+    // 异步发号：号段模式在内存中发号，直接返回；否则用lettuce异步INCR，调用线程不等待
+    public CompletableFuture<Long> nextIDAsync(String keyType){
+        if (segmentEnabled) {
+            return CompletableFuture.completedFuture(nextIDBySegment(keyType));
+        }
+        long timeStamp = currentTimeStamp();
+        return asyncRedis.incr("global:id:" + keyType + timeStamp).thenApply(serial -> timeStamp<<32 | serial);
+    }
+
+    // 每个ID都去redis INCR一次
+    public long nextIDByRedis(String keyType){
         // 1. 计算时间戳，默认不会超过31 bit (以天为单位）
-        LocalDate startDate = LocalDate.of(2024, 12, 1);
-        LocalDate nowDate = LocalDate.now();
-        Period between = Period.between(startDate, nowDate);
-        long timeStamp = (long) between.getDays();
+        long timeStamp = currentTimeStamp();
 
         // 2. 为一天内的ID创建序列号，默认不会超过32 bit
         long serial = stringRedisTemplate.opsForValue().increment("global:id:" + keyType + timeStamp);
@@ -31,4 +64,102 @@ public class IDGenerator {
 
         return id;
     }
+
+    // 从内存中的号段发号，号段用完才去redis领取下一段
+    public long nextIDBySegment(String keyType){
+        long timeStamp = currentTimeStamp();
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyType, SegmentBuffer::new);
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.timeStamp == timeStamp) {
+                // 1. 无锁地从当前号段取一个序列号
+                long serial = segment.cursor.getAndIncrement();
+                if (serial <= segment.max) {
+                    // 2. 恰好用到预取位置的线程负责触发后台预取
+                    if (serial == segment.prefetchAt) {
+                        prefetch(buffer, timeStamp);
+                    }
+                    return timeStamp<<32 | serial;
+                }
+            }
+            // 3. 号段用完或者跨天了，切换到下一段
+            switchSegment(buffer, segment, timeStamp);
+        }
+    }
+
+    private void switchSegment(SegmentBuffer buffer, Segment exhausted, long timeStamp) {
+        synchronized (buffer) {
+            // 其他线程已经切换过了
+            if (buffer.current != exhausted) {
+                return;
+            }
+            Segment next = buffer.next;
+            buffer.next = null;
+            if (next == null || next.timeStamp != timeStamp) {
+                // 预取没跟上，只能同步去redis领取
+                next = fetchSegment(buffer.keyType, timeStamp);
+            }
+            buffer.current = next;
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, long timeStamp) {
+        if (!buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        prefetchExecutor.submit(() -> {
+            try {
+                Segment next = fetchSegment(buffer.keyType, timeStamp);
+                synchronized (buffer) {
+                    if (buffer.next == null) {
+                        buffer.next = next;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("预取号段失败，keyType={}", buffer.keyType, e);
+            } finally {
+                buffer.loading.set(false);
+            }
+        });
+    }
+
+    private Segment fetchSegment(String keyType, long timeStamp) {
+        // INCRBY返回这一段的最大值，这一段就是 [max - step + 1, max]
+        long max = stringRedisTemplate.opsForValue().increment("global:id:" + keyType + timeStamp, segmentStep);
+        return new Segment(timeStamp, max - segmentStep + 1, max, prefetchRatio);
+    }
+
+    private long currentTimeStamp() {
+        return ChronoUnit.DAYS.between(START_DATE, LocalDate.now());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    private static class Segment {
+        private final long timeStamp;
+        private final AtomicLong cursor;
+        private final long max;
+        private final long prefetchAt;
+
+        private Segment(long timeStamp, long min, long max, double prefetchRatio) {
+            this.timeStamp = timeStamp;
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+            this.prefetchAt = min + (long) ((max - min + 1) * prefetchRatio);
+        }
+    }
+
+    private static class SegmentBuffer {
+        private final String keyType;
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean(false);
+
+        private SegmentBuffer(String keyType) {
+            this.keyType = keyType;
+        }
+    }
 }
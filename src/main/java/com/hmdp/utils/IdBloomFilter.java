@@ -0,0 +1,158 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.VoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 商铺和优惠券id的布隆过滤器，在查redis和数据库之前拦截不存在的id，防止缓存穿透
+ * mode: none 不开启；local 每个节点在内存中各自维护，新增id通过pub/sub广播；redis 所有节点共享redis bitmap
+ */
+@Slf4j
+@Component
+public class IdBloomFilter {
+    public static final String TYPE_SHOP = "shop";
+    public static final String TYPE_VOUCHER = "voucher";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private ShopMapper shopMapper;
+    @Autowired
+    private VoucherMapper voucherMapper;
+
+    @Value("${hmdp.bloom.mode:none}")
+    private String mode;
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    private BloomFilter shopFilter;
+    private BloomFilter voucherFilter;
+
+    @PostConstruct
+    private void init() {
+        if ("local".equals(mode)) {
+            shopFilter = new LocalBloomFilter(expectedInsertions, fpp);
+            voucherFilter = new LocalBloomFilter(expectedInsertions, fpp);
+        } else if ("redis".equals(mode)) {
+            shopFilter = new RedisBloomFilter(stringRedisTemplate, BLOOM_SHOP_KEY, expectedInsertions, fpp);
+            voucherFilter = new RedisBloomFilter(stringRedisTemplate, BLOOM_VOUCHER_KEY, expectedInsertions, fpp);
+        } else {
+            return;
+        }
+        load(shopFilter, shopMapper.selectObjs(new QueryWrapper<Shop>().select("id")));
+        load(voucherFilter, voucherMapper.selectObjs(new QueryWrapper<Voucher>().select("id")));
+        log.debug("布隆过滤器初始化完成，mode={}, stats={}", mode, stats());
+    }
+
+    private void load(BloomFilter filter, List<Object> idObjects) {
+        List<Long> ids = idObjects.stream().map(o -> ((Number) o).longValue()).collect(Collectors.toList());
+        if (filter instanceof RedisBloomFilter) {
+            // 即使其他节点已经建好也重新写一遍：SETBIT是幂等的，上次没建完或者中途丢失的id也能补上
+            ((RedisBloomFilter) filter).putAll(ids);
+            return;
+        }
+        ids.forEach(filter::put);
+    }
+
+    public boolean mightContainShop(Long id) {
+        return mightContain(shopFilter, id);
+    }
+
+    public boolean mightContainVoucher(Long id) {
+        return mightContain(voucherFilter, id);
+    }
+
+    public void addShop(Long id) {
+        add(TYPE_SHOP, shopFilter, id);
+    }
+
+    public void addVoucher(Long id) {
+        add(TYPE_VOUCHER, voucherFilter, id);
+    }
+
+    /**
+     * 和调用方的其他redis命令放在同一个pipeline里发送
+     */
+    public void addVoucher(Long id, StringRedisConnection conn) {
+        if (voucherFilter == null || id == null) {
+            return;
+        }
+        if (voucherFilter instanceof RedisBloomFilter) {
+            ((RedisBloomFilter) voucherFilter).put(id, conn);
+            return;
+        }
+        voucherFilter.put(id);
+        conn.publish(BLOOM_ADD_CHANNEL, TYPE_VOUCHER + ":" + id);
+    }
+
+    /**
+     * 收到其他节点新增id的广播，消息格式为 type:id
+     */
+    public void onRemoteAdd(String message) {
+        int idx = message.indexOf(':');
+        String type = message.substring(0, idx);
+        long id = Long.parseLong(message.substring(idx + 1));
+        BloomFilter filter = TYPE_SHOP.equals(type) ? shopFilter : voucherFilter;
+        if (filter instanceof LocalBloomFilter) {
+            filter.put(id);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", mode);
+        if (shopFilter != null) {
+            stats.put(TYPE_SHOP, stats(shopFilter));
+            stats.put(TYPE_VOUCHER, stats(voucherFilter));
+        }
+        return stats;
+    }
+
+    private Map<String, Object> stats(BloomFilter filter) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("expectedInsertions", filter.getExpectedInsertions());
+        stats.put("numBits", filter.getNumBits());
+        stats.put("numHashFunctions", filter.getNumHashFunctions());
+        stats.put("memoryBytes", filter.memoryBytes());
+        stats.put("bitsSet", filter.bitCount());
+        stats.put("estimatedFpp", filter.estimatedFpp());
+        return stats;
+    }
+
+    private boolean mightContain(BloomFilter filter, Long id) {
+        if (id == null) {
+            return false;
+        }
+        return filter == null || filter.mightContain(id);
+    }
+
+    private void add(String type, BloomFilter filter, Long id) {
+        if (filter == null || id == null) {
+            return;
+        }
+        filter.put(id);
+        if (filter instanceof LocalBloomFilter) {
+            // 每个节点的过滤器是独立的，要通知其他节点也加上这个id
+            stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, type + ":" + id);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * hutool json字符串，和之前直接用StringRedisTemplate保存的格式一致
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] data, Class<T> type) {
+        return JSONUtil.toBean(new String(data, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeList(List<?> values, Class<?> elementType) {
+        return JSONUtil.toJsonStr(values).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] data, Class<T> elementType) {
+        return JSONUtil.toList(new String(data, StandardCharsets.UTF_8), elementType);
+    }
+}
@@ -0,0 +1,133 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内的LRU缓存，按key分段加锁，每个条目有自己的过期时间，
+ * 命中/未命中/淘汰次数按key前缀（最后一个':'之前的部分）统计
+ */
+public class LocalCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final Map<String, Stats> statsByPrefix = new ConcurrentHashMap<>();
+
+    public LocalCache(int maxSize) {
+        int segmentSize = Math.max(1, maxSize / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <R> R get(String key) {
+        Stats stats = stats(key);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry entry = segment.map.get(key);
+            if (entry == null) {
+                stats.misses.increment();
+                return null;
+            }
+            if (entry.expireAt <= System.currentTimeMillis()) {
+                segment.map.remove(key);
+                stats.expirations.increment();
+                stats.misses.increment();
+                return null;
+            }
+            stats.hits.increment();
+            return (R) entry.value;
+        }
+    }
+
+    public void put(String key, Object value, long ttlMillis) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.map.put(key, new Entry(value, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    public void remove(String key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            if (segment.map.remove(key) != null) {
+                stats(key).invalidations.increment();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    public Map<String, Map<String, Long>> stats() {
+        Map<String, Map<String, Long>> result = new LinkedHashMap<>();
+        statsByPrefix.forEach((prefix, stats) -> {
+            Map<String, Long> m = new LinkedHashMap<>();
+            m.put("hits", stats.hits.sum());
+            m.put("misses", stats.misses.sum());
+            m.put("evictions", stats.evictions.sum());
+            m.put("expirations", stats.expirations.sum());
+            m.put("invalidations", stats.invalidations.sum());
+            result.put(prefix, m);
+        });
+        return result;
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    private Stats stats(String key) {
+        int end = key.lastIndexOf(':');
+        String prefix = end < 0 ? key : key.substring(0, end + 1);
+        return statsByPrefix.computeIfAbsent(prefix, p -> new Stats());
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expireAt;
+
+        private Entry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private class Segment {
+        private final LinkedHashMap<String, Entry> map;
+
+        private Segment(int maxSize) {
+            // accessOrder = true，超出容量时淘汰最久未访问的条目
+            this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > maxSize) {
+                        stats(eldest.getKey()).evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+
+    private static class Stats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder expirations = new LongAdder();
+        private final LongAdder invalidations = new LongAdder();
+    }
+}
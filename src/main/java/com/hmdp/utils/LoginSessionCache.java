@@ -0,0 +1,217 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录用户的会话缓存
+ * 1.token -> UserDTO 在进程内缓存几秒，命中时不访问redis
+ * 2.刷新有效期改为后台批量执行：请求只记录被访问的token，定时用pipeline一次发出所有EXPIRE，
+ *   距离上次刷新不久的token有效期还很充足，不需要再刷新
+ * 3.登出时删除redis中的会话，并通过pub/sub通知所有节点删除进程内缓存
+ */
+@Slf4j
+@Component
+public class LoginSessionCache {
+    private static final long LOGIN_USER_TTL_MILLIS = TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.session.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.session.local-max-size:10000}")
+    private int localMaxSize;
+    @Value("${hmdp.session.local-ttl-seconds:10}")
+    private long localTtlSeconds;
+    @Value("${hmdp.session.flush-interval-seconds:5}")
+    private long flushIntervalSeconds;
+    // 有效期已经用掉多少比例之后才需要刷新
+    @Value("${hmdp.session.refresh-ratio:0.2}")
+    private double refreshRatio;
+
+    private LocalCache localCache;
+    // token -> 本节点最后一次刷新有效期的时间
+    private final Map<String, Long> refreshedAt = new ConcurrentHashMap<>();
+    // 等待下一次批量刷新的token
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final LongAdder redisLoads = new LongAdder();
+    private final LongAdder touches = new LongAdder();
+    private final LongAdder refreshSkipped = new LongAdder();
+    private final LongAdder expireSent = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        localCache = new LocalCache(localMaxSize);
+        flushExecutor.scheduleWithFixedDelay(this::flushSafely,
+                flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 根据token查找登录用户，没有登录或已经过期时返回null
+     */
+    public UserDTO get(String token) {
+        String key = LOGIN_USER + token;
+        if (localCache != null) {
+            UserDTO user = localCache.get(key);
+            if (user != null) {
+                return user;
+            }
+        }
+        redisLoads.increment();
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        UserDTO user = toUserDTO(entries);
+        if (localCache != null) {
+            localCache.put(key, user, TimeUnit.SECONDS.toMillis(localTtlSeconds));
+        }
+        return user;
+    }
+
+    /**
+     * 用户访问了一次，延长会话有效期
+     */
+    public void touch(String token) {
+        if (!enabled) {
+            stringRedisTemplate.expire(LOGIN_USER + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+            return;
+        }
+        touches.increment();
+        Long last = refreshedAt.get(token);
+        if (last != null && System.currentTimeMillis() - last < LOGIN_USER_TTL_MILLIS * refreshRatio) {
+            refreshSkipped.increment();
+            return;
+        }
+        pending.add(token);
+    }
+
+    /**
+     * 登录成功后调用，新会话的有效期是满的
+     */
+    public void onLogin(String token, UserDTO user) {
+        if (!enabled) {
+            return;
+        }
+        refreshedAt.put(token, System.currentTimeMillis());
+        localCache.put(LOGIN_USER + token, user, TimeUnit.SECONDS.toMillis(localTtlSeconds));
+    }
+
+    /**
+     * 登出：删除redis中的会话，并通知所有节点删除进程内缓存
+     */
+    public void invalidate(String token) {
+        stringRedisTemplate.delete(LOGIN_USER + token);
+        evictLocal(token);
+        stringRedisTemplate.convertAndSend(LOGIN_INVALIDATE_CHANNEL, token);
+    }
+
+    /**
+     * 只删除本节点的缓存，收到失效广播时调用
+     */
+    public void evictLocal(String token) {
+        pending.remove(token);
+        refreshedAt.remove(token);
+        if (localCache != null) {
+            localCache.remove(LOGIN_USER + token);
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("刷新登录有效期失败", e);
+        }
+    }
+
+    private void flush() {
+        long now = System.currentTimeMillis();
+        // 1.清理已经在redis中过期的token的刷新记录
+        refreshedAt.values().removeIf(last -> now - last > LOGIN_USER_TTL_MILLIS);
+        if (pending.isEmpty()) {
+            return;
+        }
+        // 2.取出这一批要刷新的token
+        List<String> tokens = new ArrayList<>(pending.size());
+        for (String token : pending) {
+            if (pending.remove(token)) {
+                tokens.add(token);
+            }
+        }
+        // 3.一次往返发出所有EXPIRE
+        long seconds = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String token : tokens) {
+                conn.expire(LOGIN_USER + token, seconds);
+            }
+            return null;
+        });
+        for (String token : tokens) {
+            refreshedAt.put(token, now);
+        }
+        expireSent.add(tokens.size());
+        flushes.increment();
+    }
+
+    // 会话hash中保存的都是字符串，直接按字段取值，不需要反射
+    private static UserDTO toUserDTO(Map<Object, Object> entries) {
+        UserDTO user = new UserDTO();
+        Object id = entries.get("id");
+        user.setId(id == null ? null : Long.valueOf(id.toString()));
+        user.setNickName((String) entries.get("nickName"));
+        user.setIcon((String) entries.get("icon"));
+        return user;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("redisLoads", redisLoads.sum());
+        stats.put("touches", touches.sum());
+        stats.put("refreshSkipped", refreshSkipped.sum());
+        stats.put("expireSent", expireSent.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("pending", pending.size());
+        stats.put("local", localCache == null ? null : localCache.stats());
+        return stats;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        flushExecutor.shutdown();
+        // 关闭前把还没刷新的token刷新掉
+        if (enabled) {
+            flushSafely();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 游标分页的游标，保存上一页最后一条数据的排序字段和id，
+ * 对客户端是不透明的字符串，下一页用 where (排序字段, id) 在游标之后 代替 offset
+ */
+public class PageCursor {
+    private static final String SEPARATOR = ":";
+
+    private final String[] values;
+
+    private PageCursor(String[] values) {
+        this.values = values;
+    }
+
+    public static String encode(Object... values) {
+        String raw = StrUtil.join(SEPARATOR, values);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标，空字符串表示第一页返回null；格式错误时抛出IllegalArgumentException
+     */
+    public static PageCursor decode(String token) {
+        if (StrUtil.isEmpty(token)) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            return new PageCursor(raw.split(SEPARATOR, -1));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid cursor", e);
+        }
+    }
+
+    public String get(int index) {
+        if (index >= values.length) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+        return values[index];
+    }
+
+    public long getLong(int index) {
+        try {
+            return Long.parseLong(get(index));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid cursor", e);
+        }
+    }
+}
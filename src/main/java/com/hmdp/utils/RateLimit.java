@@ -0,0 +1,46 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 接口限流，由RateLimitInterceptor在进入controller之前检查，超过限制直接返回429
+ * 每个资源（路径变量key的值）一个令牌桶，每个登录用户在这个资源上再有一个令牌桶
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+    /**
+     * 限流名称，用于redis key和统计
+     */
+    String name();
+
+    /**
+     * 作为资源id的路径变量名，为空时整个接口共用一个桶
+     */
+    String key() default "";
+
+    /**
+     * 每个资源每秒放行的请求数
+     */
+    double rate();
+
+    /**
+     * 每个资源的桶容量，允许的瞬时突发请求数
+     */
+    int burst();
+
+    /**
+     * 每个用户在每个资源上每秒放行的请求数，0表示不按用户限流
+     */
+    double userRate() default 0;
+
+    /**
+     * 每个用户的桶容量
+     */
+    int userBurst() default 1;
+}
@@ -0,0 +1,61 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import org.springframework.http.MediaType;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 对带有@RateLimit的接口限流，超过限制直接返回429，不进入controller
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final byte[] REJECT_BODY =
+            JSONUtil.toJsonStr(Result.fail("请求太多，请稍后再试")).getBytes(StandardCharsets.UTF_8);
+
+    private final RateLimiter rateLimiter;
+
+    public RateLimitInterceptor(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1.只处理带有@RateLimit的controller方法，异步请求结果回来后的再次分派已经检查过
+        if (request.getDispatcherType() == DispatcherType.ASYNC || !(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        RateLimit limit = ((HandlerMethod) handler).getMethodAnnotation(RateLimit.class);
+        if (limit == null) {
+            return true;
+        }
+        // 2.从路径变量中取出资源id
+        String resource = null;
+        if (!limit.key().isEmpty()) {
+            @SuppressWarnings("unchecked")
+            Map<String, String> variables =
+                    (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+            resource = variables == null ? null : variables.get(limit.key());
+        }
+        UserDTO user = UserHolder.getUser();
+        // 3.超过限制直接返回，响应体是固定的字节数组
+        if (rateLimiter.tryAcquire(limit, resource, user == null ? null : user.getId()) == RateLimiter.ALLOWED) {
+            return true;
+        }
+        response.setStatus(TOO_MANY_REQUESTS);
+        response.setHeader("Retry-After", "1");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(REJECT_BODY.length);
+        response.getOutputStream().write(REJECT_BODY);
+        return false;
+    }
+}
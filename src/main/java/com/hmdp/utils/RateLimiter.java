@@ -0,0 +1,181 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 两级令牌桶限流
+ * 1.本节点内存中的令牌桶先过滤，超出部分不访问redis直接拒绝
+ * 2.通过本节点的请求再用redis lua令牌桶在所有节点之间限流，资源桶和用户桶在一次脚本调用中判断
+ * 本节点的资源桶速率是全局速率乘以local-ratio，多个节点时按节点数调小；用户桶和全局一样，
+ * 一个用户在本节点超过了全局速率，全局一定也超过了
+ * redis出错时放行，只靠本节点限流
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+    public static final int ALLOWED = 0;
+    public static final int RESOURCE_LIMITED = 1;
+    public static final int USER_LIMITED = 2;
+
+    private static final String SCRIPT = "rateLimit";
+
+    @Autowired
+    private RedisScripts redisScripts;
+
+    @Value("${hmdp.rate-limit.local-ratio:1.0}")
+    private double localRatio;
+    // 本节点最多保存的资源桶和用户桶数，超过后清理已经补满的桶
+    @Value("${hmdp.rate-limit.local-max-buckets:100000}")
+    private int localMaxBuckets;
+    // 两次清理之间的最短间隔，桶数超过上限时也不会每个请求都遍历整个map
+    @Value("${hmdp.rate-limit.sweep-interval-millis:1000}")
+    private long sweepIntervalMillis;
+
+    // 名称:资源 -> 本节点资源桶
+    private final Map<String, TokenBucket> resourceBuckets = new ConcurrentHashMap<>();
+    // 名称:资源:用户 -> 本节点用户桶
+    private final Map<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+    private final Map<String, Stats> statsByName = new ConcurrentHashMap<>();
+    // 上次清理的时间，CAS成功的线程负责清理，其他线程直接跳过
+    private final AtomicLong lastSweepMillis = new AtomicLong();
+
+    /**
+     * @param resource 资源id，null表示整个接口
+     * @param userId 登录用户，null时不按用户限流
+     * @return ALLOWED 放行；RESOURCE_LIMITED 资源超过限制；USER_LIMITED 用户超过限制
+     */
+    public int tryAcquire(RateLimit limit, String resource, Long userId) {
+        Stats stats = statsByName.computeIfAbsent(limit.name(), k -> new Stats());
+        String bucketKey = limit.name() + ":" + (resource == null ? "" : resource);
+        boolean byUser = userId != null && limit.userRate() > 0;
+        long now = System.currentTimeMillis();
+        sweepIfNeeded(now);
+        // 1.本节点限流，不访问redis
+        if (byUser) {
+            TokenBucket userBucket = userBuckets.computeIfAbsent(bucketKey + ":" + userId,
+                    k -> new TokenBucket(limit.userRate(), limit.userBurst(), now));
+            if (!userBucket.tryAcquire(now)) {
+                stats.localRejected.increment();
+                return USER_LIMITED;
+            }
+        }
+        TokenBucket resourceBucket = resourceBuckets.computeIfAbsent(bucketKey,
+                k -> new TokenBucket(limit.rate() * localRatio, Math.max(1, (int) (limit.burst() * localRatio)), now));
+        if (!resourceBucket.tryAcquire(now)) {
+            stats.localRejected.increment();
+            return RESOURCE_LIMITED;
+        }
+        // 2.redis全局限流，key带hash tag，资源桶和用户桶在同一个slot
+        String redisKey = RATE_LIMIT_KEY + limit.name() + ":{" + (resource == null ? "" : resource) + "}";
+        List<String> keys = new ArrayList<>(2);
+        keys.add(redisKey);
+        if (byUser) {
+            keys.add(redisKey + ":" + userId);
+        }
+        Long r;
+        try {
+            r = redisScripts.execute(SCRIPT, Long.class, keys, now,
+                    limit.rate(), limit.burst(), limit.userRate(), limit.userBurst());
+        } catch (Exception e) {
+            stats.redisErrors.increment();
+            log.warn("redis限流失败，按本节点限流放行: {}", e.toString());
+            stats.allowed.increment();
+            return ALLOWED;
+        }
+        int code = r == null ? ALLOWED : r.intValue();
+        if (code == ALLOWED) {
+            stats.allowed.increment();
+        } else {
+            stats.redisRejected.increment();
+        }
+        return code;
+    }
+
+    // 桶数超过上限时清理已经补满的桶，最多每个间隔清理一次
+    private void sweepIfNeeded(long now) {
+        if (userBuckets.size() <= localMaxBuckets && resourceBuckets.size() <= localMaxBuckets) {
+            return;
+        }
+        long last = lastSweepMillis.get();
+        if (now - last < sweepIntervalMillis || !lastSweepMillis.compareAndSet(last, now)) {
+            return;
+        }
+        if (userBuckets.size() > localMaxBuckets) {
+            userBuckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+        if (resourceBuckets.size() > localMaxBuckets) {
+            resourceBuckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+    }
+
+    public Map<String, Map<String, Long>> stats() {
+        Map<String, Map<String, Long>> result = new LinkedHashMap<>();
+        statsByName.forEach((name, stats) -> {
+            Map<String, Long> m = new LinkedHashMap<>();
+            m.put("allowed", stats.allowed.sum());
+            m.put("localRejected", stats.localRejected.sum());
+            m.put("redisRejected", stats.redisRejected.sum());
+            m.put("redisErrors", stats.redisErrors.sum());
+            result.put(name, m);
+        });
+        return result;
+    }
+
+    private static class Stats {
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder localRejected = new LongAdder();
+        private final LongAdder redisRejected = new LongAdder();
+        private final LongAdder redisErrors = new LongAdder();
+    }
+
+    /**
+     * 本节点的令牌桶，和rateLimit.lua的算法一样
+     */
+    private static class TokenBucket {
+        private final double ratePerMillis;
+        private final int capacity;
+        private double tokens;
+        private long ts;
+
+        private TokenBucket(double ratePerSecond, int capacity, long now) {
+            this.ratePerMillis = ratePerSecond / 1000;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.ts = now;
+        }
+
+        private synchronized boolean tryAcquire(long now) {
+            refill(now);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        private synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+
+        private void refill(long now) {
+            if (now > ts) {
+                tokens = Math.min(capacity, tokens + (now - ts) * ratePerMillis);
+                ts = now;
+            }
+        }
+    }
+}
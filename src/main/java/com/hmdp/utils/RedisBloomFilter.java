@@ -0,0 +1,86 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+
+/**
+ * 位数组保存在redis bitmap里的布隆过滤器，所有节点共享，k个位在一次pipeline里读写
+ * key中带上位数组长度和哈希函数个数，调整expected-insertions或fpp之后使用新的bitmap，不会和旧的位布局混在一起
+ */
+public class RedisBloomFilter extends BloomFilter {
+    // 启动时每次pipeline写入的id数
+    private static final int PUT_BATCH_SIZE = 10000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String key;
+
+    public RedisBloomFilter(StringRedisTemplate stringRedisTemplate, String keyPrefix, long expectedInsertions, double fpp) {
+        super(expectedInsertions, fpp);
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = keyPrefix + ":" + numBits + ":" + numHashFunctions;
+    }
+
+    @Override
+    public void put(long id) {
+        long[] offsets = offsets(id);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long offset : offsets) {
+                conn.setBit(key, offset, true);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 在调用方的pipeline中写入，和其他命令一起发送
+     */
+    public void put(long id, StringRedisConnection conn) {
+        for (long offset : offsets(id)) {
+            conn.setBit(key, offset, true);
+        }
+    }
+
+    public void putAll(List<Long> ids) {
+        for (int from = 0; from < ids.size(); from += PUT_BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(ids.size(), from + PUT_BATCH_SIZE));
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Long id : batch) {
+                    for (long offset : offsets(id)) {
+                        conn.setBit(key, offset, true);
+                    }
+                }
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public boolean mightContain(long id) {
+        long[] offsets = offsets(id);
+        List<Object> bits = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long offset : offsets) {
+                conn.getBit(key, offset);
+            }
+            return null;
+        });
+        for (Object bit : bits) {
+            if (!Boolean.TRUE.equals(bit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long bitCount() {
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                ((StringRedisConnection) connection).bitCount(key));
+        return count == null ? 0 : count;
+    }
+}
@@ -6,6 +6,11 @@ public class RedisConstants {
 
     public static final String LOGIN_USER = "login:user:";
     public static final long LOGIN_USER_TTL = 30;
+    public static final String LOGIN_INVALIDATE_CHANNEL = "login:invalidate";
+
+    public static final String USER_SIGN_KEY = "sign:";
+    public static final String USER_DAU_KEY = "dau:";
+    public static final String UV_KEY = "uv:";
 
     public static final String CACHE_SHOP = "cache:shop:";
     public static final long CACHE_SHOP_TTL = 10;
@@ -13,11 +18,52 @@ public class RedisConstants {
 
     public static final long CACHE_SHOP_LOCK_TTL = 3;
     public static final String CACHE_SHOP_LOCK = "cache:shop:lock:";
+    public static final String CACHE_SHOP_LOGICAL = "cache:shop:logical:";
+    public static final long CACHE_REBUILD_LOCK_TTL = 10;
+    public static final int SINGLE_FLIGHT_MAX_RETRIES = 20;
+    public static final long SINGLE_FLIGHT_RETRY_MILLIS = 50;
 
     public static final String CACHE_SHOP_TYPE_LIST = "cache:shop-type:list";
 
+    public static final String CACHE_USER = "cache:user:";
+    public static final long CACHE_USER_TTL = 30;
+
+    public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_INDEX_CHANNEL = "shop:index";
+
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_TRENDING_KEY = "blog:trending";
+    public static final String BLOG_HOT_REBUILDING_KEY = "blog:hot:rebuilding";
+    public static final String BLOG_HOT_JOURNAL_KEY = "blog:hot:journal";
+    public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKE_DELTA_KEY = "blog:like:delta";
+    public static final String BLOG_LIKE_FLUSHING_KEY = "blog:like:delta:flushing";
+    public static final String BLOG_LIKE_FLUSH_ID_KEY = "blog:like:delta:flushing:id";
+    public static final String BLOG_LIKE_FLUSH_LOCK = "blog:like:flush";
+
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_AUTHORS_KEY = "feed:big-authors";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+
     public static final String SECKILL_STOCK = "seckill:stock:";
+    public static final String SECKILL_ORDER = "seckill:order:";
+    public static final String SECKILL_SHARDS = "seckill:shards:";
+    public static final String SECKILL_META = "seckill:meta:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    public static final String SECKILL_META_CHANNEL = "seckill:meta";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DEAD_SUFFIX = ":dead";
 
     public static final String LOCK_PREFIX = "lock:";
 
+    public static final String RATE_LIMIT_KEY = "rate:";
+
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+    public static final String BLOOM_VOUCHER_KEY = "bloom:voucher";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+
 }
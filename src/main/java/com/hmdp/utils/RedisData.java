@@ -0,0 +1,14 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 逻辑过期的缓存数据：redis中不设置过期时间，由expireTime判断数据是否需要重建
+ */
+@Data
+public class RedisData {
+    private LocalDateTime expireTime;
+    private Object data;
+}
@@ -0,0 +1,98 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 把多条redis命令合并成一次往返发送
+ * pipeline: 命令一起发出，互相之间没有原子性
+ * transaction: 在pipeline里用MULTI/EXEC包起来，一次往返并且原子执行
+ * script: 在redis服务端执行lua脚本，可以根据中间结果决定后面的命令，脚本由RedisScripts按SHA1调用
+ * 每次调用按名字统计命令数和节省的往返次数，命令数按返回的结果数计算，不拦截每条命令
+ */
+@Component
+public class RedisPipelineExecutor {
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisScripts redisScripts;
+
+    private final Map<String, Stats> statsByName = new ConcurrentHashMap<>();
+
+    /**
+     * 用pipeline执行，返回每条命令的结果
+     */
+    public List<Object> pipeline(String name, Consumer<StringRedisConnection> commands) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            commands.accept((StringRedisConnection) connection);
+            return null;
+        });
+        // 每条命令对应一个结果，结果数就是命令数
+        record(name, results.size());
+        return results;
+    }
+
+    /**
+     * 用MULTI/EXEC原子执行，返回每条命令的结果
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> transaction(String name, Consumer<StringRedisConnection> commands) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.multi();
+            commands.accept(conn);
+            conn.exec();
+            return null;
+        });
+        // pipeline的结果中最后一个是EXEC返回的结果列表，列表大小就是事务中的命令数
+        Object execResult = results.isEmpty() ? null : results.get(results.size() - 1);
+        List<Object> execResults = execResult instanceof List ? (List<Object>) execResult : results;
+        record(name, execResults.size());
+        return execResults;
+    }
+
+    /**
+     * 执行lua脚本，name是脚本名，commands是脚本中执行的redis命令数，用来统计节省的往返次数
+     */
+    public <T> T script(String name, Class<T> resultType, int commands, List<String> keys, Object... args) {
+        T result = redisScripts.execute(name, resultType, keys, args);
+        record(name, commands);
+        return result;
+    }
+
+    public Map<String, Map<String, Long>> stats() {
+        Map<String, Map<String, Long>> result = new LinkedHashMap<>();
+        statsByName.forEach((name, stats) -> {
+            Map<String, Long> m = new LinkedHashMap<>();
+            m.put("calls", stats.calls.sum());
+            m.put("commands", stats.commands.sum());
+            m.put("roundTripsSaved", stats.roundTripsSaved.sum());
+            result.put(name, m);
+        });
+        return result;
+    }
+
+    private void record(String name, int commands) {
+        Stats stats = statsByName.computeIfAbsent(name, k -> new Stats());
+        stats.calls.increment();
+        stats.commands.add(commands);
+        // 一条一条发送需要commands次往返，合并后只要一次
+        stats.roundTripsSaved.add(Math.max(0, commands - 1));
+    }
+
+    private static class Stats {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder commands = new LongAdder();
+        private final LongAdder roundTripsSaved = new LongAdder();
+    }
+}
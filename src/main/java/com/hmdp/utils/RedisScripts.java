@@ -0,0 +1,259 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.SecureUtil;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConverters;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 所有lua脚本的注册表
+ * 1.启动时读取classpath下lua目录中的所有*.lua，用SCRIPT LOAD预先加载，脚本名是去掉.lua的文件名，
+ *   缺少业务依赖的脚本时启动失败，不等到第一次调用才报错
+ * 2.调用时只发送EVALSHA和脚本的SHA1，不再每次发送脚本内容
+ * 3.redis重启或主从切换后脚本缓存丢失会返回NOSCRIPT，这时重新加载一次再执行
+ * 4.按脚本统计调用次数、失败次数、重新加载次数和耗时
+ * executeAsync用lettuce的异步命令执行，调用线程不等待redis
+ */
+@Slf4j
+@Component
+public class RedisScripts {
+    // 放在目录下，classpath*:根目录的通配在jar包中可能找不到文件
+    private static final String LOCATION = "classpath*:lua/*.lua";
+    private static final String SUFFIX = ".lua";
+    // 业务代码直接按名字调用的脚本
+    private static final List<String> REQUIRED = Arrays.asList(
+            "buySeckillVoucher", "seckillShard", "likeBlog", "hotRankBegin", "hotRankSwap", "rateLimit", "unlock");
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private AsyncRedis asyncRedis;
+
+    // 脚本名 -> 脚本，启动后不再变化
+    private final Map<String, Script> scripts = new TreeMap<>();
+
+    @PostConstruct
+    private void init() throws IOException {
+        // 1.读取所有脚本
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources(LOCATION);
+        for (Resource resource : resources) {
+            String filename = resource.getFilename();
+            if (filename == null || !filename.endsWith(SUFFIX)) {
+                continue;
+            }
+            String body;
+            try (InputStream in = resource.getInputStream()) {
+                body = StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+            }
+            String name = filename.substring(0, filename.length() - SUFFIX.length());
+            scripts.put(name, new Script(body));
+        }
+        List<String> missing = new ArrayList<>();
+        for (String name : REQUIRED) {
+            if (!scripts.containsKey(name)) {
+                missing.add(name);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("缺少lua脚本: " + missing + "，位置: " + LOCATION);
+        }
+        // 2.预先加载，redis不可用时不影响启动，第一次调用时会按NOSCRIPT重新加载
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                for (Script script : scripts.values()) {
+                    connection.scriptingCommands().scriptLoad(script.bytes);
+                }
+                return null;
+            });
+            log.info("预加载lua脚本: {}", scripts.keySet());
+        } catch (Exception e) {
+            log.warn("预加载lua脚本失败，调用时再加载", e);
+        }
+    }
+
+    /**
+     * 按脚本名执行，resultType支持Long、Boolean、String和List
+     */
+    public <T> T execute(String name, Class<T> resultType, List<String> keys, Object... args) {
+        Script script = scripts.get(name);
+        if (script == null) {
+            throw new IllegalArgumentException("lua脚本不存在: " + name);
+        }
+        byte[][] keysAndArgs = keysAndArgs(keys, args);
+        ReturnType returnType = ReturnType.fromJavaType(resultType);
+        long start = System.nanoTime();
+        try {
+            Object result = stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                    evalSha(connection, script, returnType, keys.size(), keysAndArgs));
+            return resultType.cast(deserialize(result));
+        } catch (RuntimeException e) {
+            script.errors.increment();
+            throw e;
+        } finally {
+            script.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 异步执行，结果在lettuce的IO线程中完成，调用方的回调里不能有同步的redis调用
+     */
+    public <T> CompletableFuture<T> executeAsync(String name, Class<T> resultType, List<String> keys, Object... args) {
+        Script script = scripts.get(name);
+        if (script == null) {
+            throw new IllegalArgumentException("lua脚本不存在: " + name);
+        }
+        byte[][] keyBytes = new byte[keys.size()][];
+        for (int i = 0; i < keyBytes.length; i++) {
+            keyBytes[i] = AsyncRedis.bytes(keys.get(i));
+        }
+        byte[][] argBytes = new byte[args.length][];
+        for (int i = 0; i < argBytes.length; i++) {
+            argBytes[i] = AsyncRedis.bytes(String.valueOf(args[i]));
+        }
+        ScriptOutputType outputType = LettuceConverters.toScriptOutputType(ReturnType.fromJavaType(resultType));
+        RedisClusterAsyncCommands<byte[], byte[]> commands = asyncRedis.commands();
+        long start = System.nanoTime();
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        commands.<Object>evalsha(script.sha, outputType, keyBytes, argBytes).whenComplete((r, e) -> {
+            if (e == null || !isNoScript(e)) {
+                complete(future, r, e);
+                return;
+            }
+            // 脚本缓存丢失，EVAL发送脚本内容执行，同时重新缓存
+            script.reloads.increment();
+            commands.<Object>eval(script.body, outputType, keyBytes, argBytes)
+                    .whenComplete((r2, e2) -> complete(future, r2, e2));
+        });
+        return future.whenComplete((r, e) -> {
+            if (e != null) {
+                script.errors.increment();
+            }
+            script.record(System.nanoTime() - start);
+        }).thenApply(r -> resultType.cast(deserialize(r)));
+    }
+
+    private static void complete(CompletableFuture<Object> future, Object result, Throwable e) {
+        if (e == null) {
+            future.complete(result);
+        } else {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static Object evalSha(RedisConnection connection, Script script, ReturnType returnType,
+                                  int numKeys, byte[][] keysAndArgs) {
+        try {
+            return connection.scriptingCommands().evalSha(script.sha, returnType, numKeys, keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            // 脚本缓存丢失，重新加载后再执行一次
+            script.reloads.increment();
+            connection.scriptingCommands().scriptLoad(script.bytes);
+            return connection.scriptingCommands().evalSha(script.sha, returnType, numKeys, keysAndArgs);
+        }
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[][] keysAndArgs(List<String> keys, Object[] args) {
+        byte[][] result = new byte[keys.size() + args.length][];
+        int i = 0;
+        for (String key : keys) {
+            result[i++] = key.getBytes(StandardCharsets.UTF_8);
+        }
+        for (Object arg : args) {
+            result[i++] = String.valueOf(arg).getBytes(StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    // 脚本返回的字符串是字节数组，和StringRedisTemplate一样按UTF-8转成String
+    private static Object deserialize(Object result) {
+        if (result instanceof byte[]) {
+            return new String((byte[]) result, StandardCharsets.UTF_8);
+        }
+        if (result instanceof List) {
+            List<Object> list = new ArrayList<>();
+            for (Object o : (List<?>) result) {
+                list.add(deserialize(o));
+            }
+            return list;
+        }
+        return result;
+    }
+
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        scripts.forEach((name, script) -> {
+            long calls = script.calls.sum();
+            long totalNanos = script.totalNanos.sum();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("sha", script.sha);
+            m.put("calls", calls);
+            m.put("errors", script.errors.sum());
+            m.put("reloads", script.reloads.sum());
+            m.put("avgMicros", calls == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos / calls));
+            m.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(script.maxNanos.get()));
+            result.put(name, m);
+        });
+        return result;
+    }
+
+    private static class Script {
+        private final String body;
+        private final byte[] bytes;
+        // SCRIPT LOAD返回的就是脚本内容的SHA1，本地计算，预加载失败时也能直接EVALSHA
+        private final String sha;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder reloads = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private Script(String body) {
+            this.body = body;
+            this.bytes = body.getBytes(StandardCharsets.UTF_8);
+            this.sha = SecureUtil.sha1(body);
+        }
+
+        private void record(long nanos) {
+            calls.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+    }
+}
@@ -1,23 +1,18 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
-import static com.hmdp.utils.RedisConstants.LOGIN_USER;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+public class RefreshIntercepter implements AsyncHandlerInterceptor {
+    private final LoginSessionCache loginSessionCache;
+    private final DauRecorder dauRecorder;
 
-public class RefreshIntercepter implements HandlerInterceptor {
-    public StringRedisTemplate stringRedisTemplate;
-
-    public RefreshIntercepter(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshIntercepter(LoginSessionCache loginSessionCache, DauRecorder dauRecorder) {
+        this.loginSessionCache = loginSessionCache;
+        this.dauRecorder = dauRecorder;
     }
 
     @Override
@@ -28,18 +23,18 @@ public class RefreshIntercepter implements HandlerInterceptor {
             return true;
         }
 
-        // 2.根据token去redis查找用户
-        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(LOGIN_USER + uuid);
-        if (entries.isEmpty()) {
+        // 2.根据token查找用户，先查进程内缓存，没有再查redis
+        UserDTO userDTO = loginSessionCache.get(uuid);
+        if (userDTO == null) {
             return true;
         }
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(entries, new UserDTO(), false);
 
         // 3.保存用户信息到 ThreadLocal
         UserHolder.saveUser(userDTO);
 
-        // 4.刷新redis中user的有效期
-        stringRedisTemplate.expire(LOGIN_USER + uuid,LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 4.刷新user的有效期，并记录日活，都由后台批量发给redis
+        loginSessionCache.touch(uuid);
+        dauRecorder.record(userDTO.getId());
 
         // 5.放行
         return true;
@@ -50,4 +45,10 @@ public class RefreshIntercepter implements HandlerInterceptor {
         // 移除用户
         UserHolder.removeUser();
     }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步请求在servlet线程上不会调用afterCompletion，线程归还前移除用户，异步分派时会重新设置
+        UserHolder.removeUser();
+    }
 }
@@ -0,0 +1,191 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_META;
+import static com.hmdp.utils.RedisConstants.SECKILL_META_CHANNEL;
+
+/**
+ * 秒杀券的活动时间和上架状态
+ * 创建秒杀券时写入redis hash seckill:meta:id 和本节点内存；下单时在内存中判断时间窗口，
+ * 本节点没有时查redis，redis也没有（比如之前创建的券）才查一次数据库并写回redis
+ * 内存中的数据有有效期，券被下架之后最多一个有效期内生效
+ * 创建时通过pub/sub通知所有节点删除内存中的旧数据；券不存在的占位只缓存1秒，新创建的券在其他节点很快就能购买
+ */
+@Component
+public class SeckillMetaCache {
+    // 优惠券状态：1 上架；2 下架；3 过期
+    private static final int STATUS_ON_SALE = 1;
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    // 券不存在时缓存的占位状态
+    private static final int STATUS_NOT_FOUND = -1;
+    private static final long NOT_FOUND_TTL_MILLIS = 1000;
+    private static final int MAX_LOCAL_SIZE = 10000;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private SeckillVoucherMapper seckillVoucherMapper;
+    @Autowired
+    private VoucherMapper voucherMapper;
+
+    @Value("${hmdp.seckill.meta-local-ttl-seconds:60}")
+    private long localTtlSeconds;
+
+    private final Map<Long, Meta> local = new ConcurrentHashMap<>();
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder redisLoads = new LongAdder();
+    private final LongAdder dbLoads = new LongAdder();
+
+    /**
+     * 创建秒杀券时写入，在调用方的pipeline中发送
+     */
+    public void put(Voucher voucher, SeckillVoucher seckillVoucher, StringRedisConnection conn) {
+        Meta meta = Meta.of(voucher.getStatus(), seckillVoucher, System.currentTimeMillis() + localTtlMillis());
+        String key = SECKILL_META + seckillVoucher.getVoucherId();
+        conn.hMSet(key, meta.toHash());
+        // 活动结束一天后删除
+        if (meta.endMillis > 0) {
+            conn.expireAt(key, TimeUnit.MILLISECONDS.toSeconds(meta.endMillis + TimeUnit.DAYS.toMillis(1)));
+        }
+        // 通知其他节点删除本地的数据（包括券不存在的占位），下次从redis读取；本节点也会收到，只是多读一次redis
+        conn.publish(SECKILL_META_CHANNEL, String.valueOf(seckillVoucher.getVoucherId()));
+        local.put(seckillVoucher.getVoucherId(), meta);
+    }
+
+    /**
+     * 收到其他节点的通知，消息是券id
+     */
+    public void onRemoteUpdate(String message) {
+        local.remove(Long.valueOf(message));
+    }
+
+    /**
+     * 判断现在能不能购买，可以购买时返回null，否则返回原因
+     */
+    public String rejectReason(long voucherId) {
+        Meta meta = get(voucherId);
+        if (meta.status == STATUS_NOT_FOUND) {
+            return "秒杀券不存在";
+        }
+        if (meta.status != STATUS_ON_SALE) {
+            return "秒杀券已下架";
+        }
+        long now = System.currentTimeMillis();
+        if (now < meta.beginMillis) {
+            return "活动未开始";
+        }
+        if (meta.endMillis > 0 && now > meta.endMillis) {
+            return "活动已经结束";
+        }
+        return null;
+    }
+
+    private Meta get(long voucherId) {
+        long now = System.currentTimeMillis();
+        // 1.本节点内存
+        Meta meta = local.get(voucherId);
+        if (meta != null && now < meta.expireAt) {
+            localHits.increment();
+            return meta;
+        }
+        // 2.redis
+        String key = SECKILL_META + voucherId;
+        Map<Object, Object> hash = stringRedisTemplate.opsForHash().entries(key);
+        if (!hash.isEmpty()) {
+            redisLoads.increment();
+            meta = Meta.of(hash, now + localTtlMillis());
+            local.put(voucherId, meta);
+            return meta;
+        }
+        // 3.数据库，写回redis
+        dbLoads.increment();
+        SeckillVoucher seckillVoucher = seckillVoucherMapper.selectById(voucherId);
+        Voucher voucher = seckillVoucher == null ? null : voucherMapper.selectById(voucherId);
+        if (seckillVoucher == null || voucher == null) {
+            meta = new Meta(0, 0, STATUS_NOT_FOUND, now + NOT_FOUND_TTL_MILLIS);
+            // 不存在的id很多时清理过期的占位，避免内存一直增长
+            if (local.size() >= MAX_LOCAL_SIZE) {
+                local.values().removeIf(m -> m.expireAt <= now);
+            }
+            local.put(voucherId, meta);
+            return meta;
+        }
+        meta = Meta.of(voucher.getStatus(), seckillVoucher, now + localTtlMillis());
+        stringRedisTemplate.opsForHash().putAll(key, meta.toHash());
+        if (meta.endMillis > 0) {
+            stringRedisTemplate.expireAt(key, new Date(meta.endMillis + TimeUnit.DAYS.toMillis(1)));
+        }
+        local.put(voucherId, meta);
+        return meta;
+    }
+
+    private long localTtlMillis() {
+        return TimeUnit.SECONDS.toMillis(localTtlSeconds);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("localSize", local.size());
+        stats.put("localHits", localHits.sum());
+        stats.put("redisLoads", redisLoads.sum());
+        stats.put("dbLoads", dbLoads.sum());
+        return stats;
+    }
+
+    private static class Meta {
+        private final long beginMillis;
+        private final long endMillis;
+        private final int status;
+        private final long expireAt;
+
+        private Meta(long beginMillis, long endMillis, int status, long expireAt) {
+            this.beginMillis = beginMillis;
+            this.endMillis = endMillis;
+            this.status = status;
+            this.expireAt = expireAt;
+        }
+
+        // 状态没有填写时当作上架
+        private static Meta of(Integer status, SeckillVoucher seckillVoucher, long expireAt) {
+            return new Meta(toMillis(seckillVoucher.getBeginTime()), toMillis(seckillVoucher.getEndTime()),
+                    status == null ? STATUS_ON_SALE : status, expireAt);
+        }
+
+        private static Meta of(Map<Object, Object> hash, long expireAt) {
+            return new Meta(Long.parseLong((String) hash.get("begin")), Long.parseLong((String) hash.get("end")),
+                    Integer.parseInt((String) hash.get("status")), expireAt);
+        }
+
+        private static long toMillis(LocalDateTime time) {
+            return time == null ? 0 : time.atZone(ZONE).toInstant().toEpochMilli();
+        }
+
+        private Map<String, String> toHash() {
+            Map<String, String> hash = new HashMap<>();
+            hash.put("begin", String.valueOf(beginMillis));
+            hash.put("end", String.valueOf(endMillis));
+            hash.put("status", String.valueOf(status));
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀券在redis中的库存
+ * 不分片时所有请求都落在 seckill:stock:id 一个key上，集群中只能用到一个节点；
+ * 分片时库存拆成N份，每份的库存、已购用户和订单消息队列带同一个hash tag {s<i>}，
+ * 用户按id的hash固定落到一个分片(home)，home分片卖完后先在home中占位，再依次去其他分片购买，
+ * 所有分片都卖完时取消占位。每个分片的扣减都在lua中判断库存，不会超卖
+ * 占位后进程崩溃时这个用户会被当作买过，不会多卖，只是这个用户失去一次机会
+ * buyAsync和buy的逻辑一样，脚本用lettuce异步命令执行，回调中只发异步命令
+ * 售罄标记：脚本返回库存不足后在本节点标记售罄并通过pub/sub通知其他节点，之后的请求不再访问redis；
+ * 补充库存时清除标记。标记有有效期，过期后重新执行一次脚本确认，丢失的通知或者和补库存并发的标记最多影响一个有效期
+ */
+@Component
+public class SeckillStock {
+    public static final int OK = 0;
+    public static final int SOLD_OUT = 1;
+    public static final int DUPLICATE = 2;
+    // 分片脚本的返回值：home分片卖完，已经占位
+    private static final int RESERVED = 3;
+    private static final String MESSAGE_SOLD_OUT = "1:";
+    private static final String MESSAGE_RESTOCKED = "0:";
+
+    private static final String SECKILL_SCRIPT = "buySeckillVoucher";
+    private static final String SHARD_SCRIPT = "seckillShard";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisPipelineExecutor redisPipelineExecutor;
+    @Autowired
+    private RedisScripts redisScripts;
+    @Autowired
+    private AsyncRedis asyncRedis;
+
+    // 新建秒杀券时的库存分片数，1表示不分片；每个分片有自己的订单消息队列，调小之前要等队列消费完
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
+    // 售罄标记的有效期
+    @Value("${hmdp.seckill.sold-out-ttl-millis:10000}")
+    private long soldOutTtlMillis;
+
+    // 秒杀券id -> 分片数，创建后不会变化
+    private final Map<Long, Integer> shardsByVoucher = new ConcurrentHashMap<>();
+    // 秒杀券id -> 售罄标记的过期时间
+    private final Map<Long, Long> soldOutUntil = new ConcurrentHashMap<>();
+    // 秒杀券id:分片号 -> 分片卖完标记的过期时间，借用其他分片的库存时跳过
+    private final Map<String, Long> emptyShardUntil = new ConcurrentHashMap<>();
+
+    private final LongAdder homeHits = new LongAdder();
+    private final LongAdder fallbackHits = new LongAdder();
+    private final LongAdder fallbackProbes = new LongAdder();
+    private final LongAdder soldOut = new LongAdder();
+    private final LongAdder soldOutRejected = new LongAdder();
+    private final LongAdder emptyShardSkipped = new LongAdder();
+
+    /**
+     * 写入新秒杀券的库存，在调用方的pipeline中发送
+     */
+    public void init(long voucherId, int stock, StringRedisConnection conn) {
+        int shards = Math.max(1, stockShards);
+        if (shards == 1) {
+            conn.set(SECKILL_STOCK + voucherId, String.valueOf(stock));
+            return;
+        }
+        // 库存平均分到每个分片，余数给前面的分片
+        for (int i = 0; i < shards; i++) {
+            int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+            conn.set(shardStockKey(voucherId, i), String.valueOf(shardStock));
+        }
+        conn.set(SECKILL_SHARDS + voucherId, String.valueOf(shards));
+        shardsByVoucher.put(voucherId, shards);
+    }
+
+    /**
+     * 扣减库存并把订单写入消息队列
+     * @return OK 下单成功；SOLD_OUT 库存不足；DUPLICATE 已经买过
+     */
+    public int buy(long voucherId, long userId, long orderId) {
+        int shards = shardsOf(voucherId);
+        String voucher = String.valueOf(voucherId);
+        String user = String.valueOf(userId);
+        String order = String.valueOf(orderId);
+        // 1.不分片，原来的脚本
+        if (shards == 1) {
+            Long r = redisScripts.execute(SECKILL_SCRIPT, Long.class, Collections.emptyList(), voucher, user, order);
+            int code = r == null ? SOLD_OUT : r.intValue();
+            if (code == SOLD_OUT) {
+                markSoldOut(voucherId);
+            }
+            return code;
+        }
+        // 2.先在用户自己的分片购买
+        int home = homeShard(userId, shards);
+        Long r = redisScripts.execute(SHARD_SCRIPT, Long.class,
+                Arrays.asList(shardStockKey(voucherId, home), shardStream(home), shardOrderKey(voucherId, home)),
+                voucher, user, order, "1");
+        int code = r == null ? SOLD_OUT : r.intValue();
+        if (code != RESERVED) {
+            if (code == OK) {
+                homeHits.increment();
+            }
+            return code;
+        }
+        markEmptyShard(voucherId, home);
+        // 3.自己的分片卖完了，依次去其他分片购买，已知卖完的分片跳过
+        for (int k = 1; k < shards; k++) {
+            int shard = (home + k) % shards;
+            if (isEmptyShard(voucherId, shard)) {
+                emptyShardSkipped.increment();
+                continue;
+            }
+            fallbackProbes.increment();
+            r = redisScripts.execute(SHARD_SCRIPT, Long.class,
+                    Arrays.asList(shardStockKey(voucherId, shard), shardStream(shard)),
+                    voucher, user, order, "0");
+            if (r != null && r.intValue() == OK) {
+                fallbackHits.increment();
+                return OK;
+            }
+            markEmptyShard(voucherId, shard);
+        }
+        // 4.所有分片都卖完了，取消占位
+        stringRedisTemplate.opsForSet().remove(shardOrderKey(voucherId, home), user);
+        markSoldOut(voucherId);
+        return SOLD_OUT;
+    }
+
+    /**
+     * 异步扣减库存，调用线程不等待redis，返回值和buy一样
+     * @param shards 分片数，第一次访问这张券时shardsOf要同步查redis，由调用方在lettuce回调之外查好
+     */
+    public CompletableFuture<Integer> buyAsync(long voucherId, int shards, long userId, long orderId) {
+        String voucher = String.valueOf(voucherId);
+        String user = String.valueOf(userId);
+        String order = String.valueOf(orderId);
+        // 1.不分片，原来的脚本
+        if (shards == 1) {
+            return redisScripts.executeAsync(SECKILL_SCRIPT, Long.class, Collections.emptyList(), voucher, user, order)
+                    .thenApply(r -> {
+                        int code = r == null ? SOLD_OUT : r.intValue();
+                        if (code == SOLD_OUT) {
+                            markSoldOut(voucherId);
+                        }
+                        return code;
+                    });
+        }
+        // 2.先在用户自己的分片购买
+        int home = homeShard(userId, shards);
+        return redisScripts.executeAsync(SHARD_SCRIPT, Long.class,
+                Arrays.asList(shardStockKey(voucherId, home), shardStream(home), shardOrderKey(voucherId, home)),
+                voucher, user, order, "1")
+                .thenCompose(r -> {
+                    int code = r == null ? SOLD_OUT : r.intValue();
+                    if (code != RESERVED) {
+                        if (code == OK) {
+                            homeHits.increment();
+                        }
+                        return CompletableFuture.completedFuture(code);
+                    }
+                    markEmptyShard(voucherId, home);
+                    // 3.自己的分片卖完了，依次去其他分片购买
+                    return buyFromOtherShardsAsync(voucherId, user, order, home, shards, 1);
+                });
+    }
+
+    // 从home之后的第k个分片开始依次购买，上一个分片的结果回来后再发下一个
+    private CompletableFuture<Integer> buyFromOtherShardsAsync(long voucherId, String user, String order,
+                                                               int home, int shards, int k) {
+        for (; k < shards; k++) {
+            int shard = (home + k) % shards;
+            if (isEmptyShard(voucherId, shard)) {
+                emptyShardSkipped.increment();
+                continue;
+            }
+            fallbackProbes.increment();
+            int next = k + 1;
+            return redisScripts.executeAsync(SHARD_SCRIPT, Long.class,
+                    Arrays.asList(shardStockKey(voucherId, shard), shardStream(shard)),
+                    String.valueOf(voucherId), user, order, "0")
+                    .thenCompose(r -> {
+                        if (r != null && r.intValue() == OK) {
+                            fallbackHits.increment();
+                            return CompletableFuture.completedFuture(OK);
+                        }
+                        markEmptyShard(voucherId, shard);
+                        return buyFromOtherShardsAsync(voucherId, user, order, home, shards, next);
+                    });
+        }
+        // 4.所有分片都卖完了，取消占位
+        return asyncRedis.srem(shardOrderKey(voucherId, home), user).thenApply(r -> {
+            markSoldOut(voucherId);
+            return SOLD_OUT;
+        });
+    }
+
+    /**
+     * 本节点是否已知这张券卖完了，不访问redis
+     */
+    public boolean isSoldOut(long voucherId) {
+        Long until = soldOutUntil.get(voucherId);
+        if (until == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() < until) {
+            soldOutRejected.increment();
+            return true;
+        }
+        // 过期了，下一个请求重新执行脚本确认
+        soldOutUntil.remove(voucherId, until);
+        return false;
+    }
+
+    /**
+     * 补充库存（补货、退款退回库存），并清除所有节点的售罄标记
+     */
+    public void addStock(long voucherId, int count) {
+        int shards = shardsOf(voucherId);
+        if (shards == 1) {
+            stringRedisTemplate.opsForValue().increment(SECKILL_STOCK + voucherId, count);
+        } else {
+            // 和创建时一样平均分到每个分片
+            redisPipelineExecutor.pipeline("addSeckillStock", conn -> {
+                for (int i = 0; i < shards; i++) {
+                    int shardCount = count / shards + (i < count % shards ? 1 : 0);
+                    if (shardCount > 0) {
+                        conn.incrBy(shardStockKey(voucherId, i), shardCount);
+                    }
+                }
+            });
+        }
+        clearSoldOut(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, MESSAGE_RESTOCKED + voucherId);
+    }
+
+    /**
+     * 收到其他节点的通知，消息格式 1:id 售罄；0:id 补充了库存
+     */
+    public void onRemoteMessage(String message) {
+        long voucherId = Long.parseLong(message.substring(2));
+        if (message.startsWith(MESSAGE_SOLD_OUT)) {
+            soldOutUntil.put(voucherId, System.currentTimeMillis() + soldOutTtlMillis);
+        } else {
+            clearSoldOut(voucherId);
+        }
+    }
+
+    private void markSoldOut(long voucherId) {
+        soldOut.increment();
+        // 只在从未售罄变成售罄时通知，避免每个请求都广播
+        // 异步发布，buyAsync的回调在lettuce的IO线程中，不能同步等待
+        if (soldOutUntil.put(voucherId, System.currentTimeMillis() + soldOutTtlMillis) == null) {
+            asyncRedis.publish(SECKILL_SOLD_OUT_CHANNEL, MESSAGE_SOLD_OUT + voucherId);
+        }
+    }
+
+    private void clearSoldOut(long voucherId) {
+        soldOutUntil.remove(voucherId);
+        emptyShardUntil.keySet().removeIf(key -> key.startsWith(voucherId + ":"));
+    }
+
+    private void markEmptyShard(long voucherId, int shard) {
+        emptyShardUntil.put(voucherId + ":" + shard, System.currentTimeMillis() + soldOutTtlMillis);
+    }
+
+    private boolean isEmptyShard(long voucherId, int shard) {
+        Long until = emptyShardUntil.get(voucherId + ":" + shard);
+        return until != null && System.currentTimeMillis() < until;
+    }
+
+    /**
+     * 秒杀券的分片数，不分片的券返回1
+     */
+    public int shardsOf(long voucherId) {
+        Integer shards = shardsByVoucher.get(voucherId);
+        if (shards != null) {
+            return shards;
+        }
+        // 分片数和不分片时的库存一次查出，两个都不存在说明券还没有创建，不缓存
+        List<String> values = stringRedisTemplate.opsForValue()
+                .multiGet(Arrays.asList(SECKILL_SHARDS + voucherId, SECKILL_STOCK + voucherId));
+        if (values == null || (values.get(0) == null && values.get(1) == null)) {
+            return 1;
+        }
+        int n = values.get(0) == null ? 1 : Integer.parseInt(values.get(0));
+        shardsByVoucher.put(voucherId, n);
+        return n;
+    }
+
+    /**
+     * 所有分片剩余库存之和
+     */
+    public long remaining(long voucherId) {
+        int shards = shardsOf(voucherId);
+        List<String> keys = new ArrayList<>(shards);
+        if (shards == 1) {
+            keys.add(SECKILL_STOCK + voucherId);
+        } else {
+            for (int i = 0; i < shards; i++) {
+                keys.add(shardStockKey(voucherId, i));
+            }
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        long sum = 0;
+        if (values != null) {
+            for (String value : values) {
+                sum += value == null ? 0 : Long.parseLong(value);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 订单消费者需要读取的消息队列：原来的队列加上每个分片的队列
+     */
+    public List<String> orderStreams() {
+        List<String> streams = new ArrayList<>();
+        streams.add(SECKILL_ORDER_STREAM);
+        if (stockShards > 1) {
+            for (int i = 0; i < stockShards; i++) {
+                streams.add(shardStream(i));
+            }
+        }
+        return streams;
+    }
+
+    public static int homeShard(long userId, int shards) {
+        return Math.floorMod(Long.hashCode(userId), shards);
+    }
+
+    public static String shardStockKey(long voucherId, int shard) {
+        return SECKILL_STOCK + "{s" + shard + "}:" + voucherId;
+    }
+
+    public static String shardOrderKey(long voucherId, int shard) {
+        return SECKILL_ORDER + "{s" + shard + "}:" + voucherId;
+    }
+
+    public static String shardStream(int shard) {
+        return SECKILL_ORDER_STREAM + ":{s" + shard + "}";
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stockShards", stockShards);
+        stats.put("homeHits", homeHits.sum());
+        stats.put("fallbackHits", fallbackHits.sum());
+        stats.put("fallbackProbes", fallbackProbes.sum());
+        stats.put("soldOut", soldOut.sum());
+        stats.put("soldOutRejected", soldOutRejected.sum());
+        stats.put("emptyShardSkipped", emptyShardSkipped.sum());
+        stats.put("soldOutVouchers", soldOutUntil.size());
+        return stats;
+    }
+}
@@ -0,0 +1,331 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SHOP_INDEX_CHANNEL;
+
+/**
+ * 商铺名称的进程内倒排索引，代替 LIKE '%name%' 的全表扫描
+ * 1.每个名称按单字和相邻两个字（bigram）切分，中文没有空格分词，用bigram可以匹配任意子串
+ * 2.查询时取查询词所有bigram的倒排列表求交集，再用contains确认确实是子串
+ * 3.排序：名称完全相同 > 前缀匹配 > 包含，同一档按销量从高到低
+ * 4.名称按字典序保存在跳表中，用于前缀联想
+ * 启动时全量构建，新增和修改商铺时更新，并通过pub/sub通知其他节点
+ */
+@Slf4j
+@Component
+public class ShopNameIndex {
+    private static final String MESSAGE_SEPARATOR = ":";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.shop.search.enabled:true}")
+    private boolean enabled;
+    // 前缀联想最多扫描的名称数，短前缀匹配的名称很多时不需要全部排序
+    @Value("${hmdp.shop.search.suggest-scan-limit:1000}")
+    private int suggestScanLimit;
+
+    // gram -> 包含这个gram的商铺id
+    private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+    // 商铺id -> 名称和销量
+    private final Map<Long, Doc> docs = new ConcurrentHashMap<>();
+    // 归一化后的名称 -> 商铺id，按字典序排列
+    private final NavigableMap<String, Set<Long>> names = new ConcurrentSkipListMap<>();
+    private final LongAdder postingSize = new LongAdder();
+    private volatile boolean ready;
+
+    private final LatencyStats searchStats = new LatencyStats();
+    private final LatencyStats suggestStats = new LatencyStats();
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 全量构建完成后调用，之后查询才走索引
+     */
+    public void markReady() {
+        ready = true;
+        log.debug("商铺名称索引构建完成，商铺数={}, gram数={}", docs.size(), postings.size());
+    }
+
+    /**
+     * 新增或修改商铺名称，名称为空时删除
+     */
+    public void put(Long id, String name, Integer sold) {
+        if (!enabled || id == null) {
+            return;
+        }
+        remove(id);
+        String text = normalize(name);
+        if (text.isEmpty()) {
+            return;
+        }
+        docs.put(id, new Doc(name, text, sold == null ? 0 : sold));
+        for (String gram : grams(text)) {
+            if (postings.computeIfAbsent(gram, k -> ConcurrentHashMap.newKeySet()).add(id)) {
+                postingSize.increment();
+            }
+        }
+        names.computeIfAbsent(text, k -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+
+    public void remove(Long id) {
+        Doc old = docs.remove(id);
+        if (old == null) {
+            return;
+        }
+        for (String gram : grams(old.text)) {
+            postings.computeIfPresent(gram, (k, ids) -> {
+                if (ids.remove(id)) {
+                    postingSize.decrement();
+                }
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+        names.computeIfPresent(old.text, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * 更新本节点的索引，并通知其他节点
+     */
+    public void publish(Long id, String name, Integer sold) {
+        put(id, name, sold);
+        if (enabled) {
+            stringRedisTemplate.convertAndSend(SHOP_INDEX_CHANNEL,
+                    id + MESSAGE_SEPARATOR + (sold == null ? 0 : sold) + MESSAGE_SEPARATOR + StrUtil.nullToEmpty(name));
+        }
+    }
+
+    /**
+     * 收到其他节点的更新通知，消息格式 id:sold:name
+     */
+    public void onRemoteUpdate(String message) {
+        String[] parts = message.split(MESSAGE_SEPARATOR, 3);
+        put(Long.valueOf(parts[0]), parts[2], Integer.valueOf(parts[1]));
+    }
+
+    /**
+     * 查询名称包含keyword的商铺，按相关度排序后返回从from开始的size个id
+     */
+    public List<Long> search(String keyword, int from, int size) {
+        if (from < 0 || size < 0) {
+            throw new IllegalArgumentException("from and size must not be negative");
+        }
+        long begin = System.nanoTime();
+        try {
+            String text = normalize(keyword);
+            if (text.isEmpty()) {
+                return Collections.emptyList();
+            }
+            // 1.取出每个gram的倒排列表，从最短的开始求交集
+            List<Set<Long>> lists = new ArrayList<>();
+            for (String gram : queryGrams(text)) {
+                Set<Long> ids = postings.get(gram);
+                if (ids == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(ids);
+            }
+            lists.sort(Comparator.comparingInt(Set::size));
+            List<Doc> matches = new ArrayList<>();
+            for (Long id : lists.get(0)) {
+                boolean all = true;
+                for (int i = 1; i < lists.size() && all; i++) {
+                    all = lists.get(i).contains(id);
+                }
+                // 2.bigram都命中不一定是连续的子串，再确认一次
+                Doc doc = all ? docs.get(id) : null;
+                if (doc != null && doc.text.contains(text)) {
+                    matches.add(doc.withId(id, rank(doc.text, text)));
+                }
+            }
+            if (matches.size() <= from) {
+                return Collections.emptyList();
+            }
+            // 3.按相关度、销量、名称长度排序
+            matches.sort(Doc.ORDER);
+            List<Long> result = new ArrayList<>(Math.min(size, matches.size() - from));
+            for (Doc doc : matches.subList(from, Math.min(matches.size(), from + size))) {
+                result.add(doc.id);
+            }
+            return result;
+        } finally {
+            searchStats.record(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 前缀联想，返回以prefix开头的商铺名称，销量高的在前
+     */
+    public List<String> suggest(String prefix, int limit) {
+        long begin = System.nanoTime();
+        try {
+            String text = normalize(prefix);
+            if (text.isEmpty()) {
+                return Collections.emptyList();
+            }
+            // 1.在跳表中定位前缀范围，最多扫描suggestScanLimit个名称
+            List<Doc> matches = new ArrayList<>();
+            for (Set<Long> ids : names.subMap(text, true, text + Character.MAX_VALUE, false).values()) {
+                for (Long id : ids) {
+                    Doc doc = docs.get(id);
+                    if (doc != null) {
+                        matches.add(doc.withId(id, 1));
+                    }
+                }
+                if (matches.size() >= suggestScanLimit) {
+                    break;
+                }
+            }
+            // 2.按销量排序，同名的商铺只返回一次
+            matches.sort(Doc.ORDER);
+            Set<String> result = new LinkedHashSet<>();
+            for (Doc doc : matches) {
+                if (result.size() >= limit) {
+                    break;
+                }
+                result.add(doc.name);
+            }
+            return new ArrayList<>(result);
+        } finally {
+            suggestStats.record(System.nanoTime() - begin);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ready", ready);
+        stats.put("shops", docs.size());
+        stats.put("grams", postings.size());
+        stats.put("postings", postingSize.sum());
+        stats.put("estimatedBytes", estimateBytes());
+        stats.put("search", searchStats.toMap());
+        stats.put("suggest", suggestStats.toMap());
+        return stats;
+    }
+
+    // 按对象头和引用的大致大小估算：每条倒排记录是一个Long加一个哈希表节点，每个gram是一个短字符串加一个集合
+    private long estimateBytes() {
+        long bytes = postingSize.sum() * 48 + postings.size() * 120L;
+        for (Doc doc : docs.values()) {
+            bytes += 120 + (doc.name.length() + doc.text.length()) * 2L;
+        }
+        return bytes + names.size() * 100L;
+    }
+
+    private static String normalize(String s) {
+        return s == null ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // 索引时切出所有单字和bigram，单字用来匹配只输入一个字的查询
+    private static Set<String> grams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+            if (i + 1 < text.length()) {
+                grams.add(text.substring(i, i + 2));
+            }
+        }
+        return grams;
+    }
+
+    private static Set<String> queryGrams(String text) {
+        if (text.length() == 1) {
+            return Collections.singleton(text);
+        }
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + 1 < text.length(); i++) {
+            grams.add(text.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    // 0 完全相同；1 前缀；2 包含
+    private static int rank(String name, String keyword) {
+        if (name.equals(keyword)) {
+            return 0;
+        }
+        return name.startsWith(keyword) ? 1 : 2;
+    }
+
+    private static class Doc {
+        private static final Comparator<Doc> ORDER = Comparator.comparingInt((Doc d) -> d.rank)
+                .thenComparing(Comparator.comparingInt((Doc d) -> d.sold).reversed())
+                .thenComparingInt(d -> d.text.length())
+                .thenComparingLong(d -> d.id);
+
+        private final String name;
+        private final String text;
+        private final int sold;
+        private final long id;
+        private final int rank;
+
+        private Doc(String name, String text, int sold) {
+            this(name, text, sold, 0, 0);
+        }
+
+        private Doc(String name, String text, int sold, long id, int rank) {
+            this.name = name;
+            this.text = text;
+            this.sold = sold;
+            this.id = id;
+            this.rank = rank;
+        }
+
+        // 查询时带上id和相关度，用于排序
+        private Doc withId(long id, int rank) {
+            return new Doc(name, text, sold, id, rank);
+        }
+    }
+
+    private static class LatencyStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        private Map<String, Object> toMap() {
+            long n = count.sum();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("count", n);
+            m.put("avgMicros", n == 0 ? 0 : totalNanos.sum() / n / 1000);
+            m.put("maxMicros", maxNanos.get() / 1000);
+            return m;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 请求合并：同一个key同时只有一个线程真正去加载，其他线程等待并共享它的结果
+ */
+public class SingleFlight {
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, Supplier<R> loader) {
+        calls.increment();
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            // 1.已经有线程在加载，等待它的结果
+            long start = System.nanoTime();
+            try {
+                return (R) existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+            } finally {
+                waitNanos.add(System.nanoTime() - start);
+            }
+        }
+        // 2.自己负责加载，完成后唤醒等待的线程
+        loads.increment();
+        try {
+            R value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long callCount = calls.sum();
+        long loadCount = loads.sum();
+        long coalesced = callCount - loadCount;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("calls", callCount);
+        stats.put("loads", loadCount);
+        stats.put("coalesced", coalesced);
+        stats.put("coalescingRatio", callCount == 0 ? 0 : (double) coalesced / callCount);
+        stats.put("avgWaitMicros", coalesced == 0 ? 0 : waitNanos.sum() / coalesced / 1000.0);
+        return stats;
+    }
+}
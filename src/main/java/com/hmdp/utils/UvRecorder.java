@@ -0,0 +1,269 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.UV_KEY;
+
+/**
+ * 商铺、博文的独立访客数(UV)
+ * 1.每个对象每天一个HyperLogLog：uv:类型:id:yyyyMMdd，不管访问量多大，每个key最多占用12KB
+ * 2.访问只记录在进程内的缓冲区，后台定时按批用pipeline发出PFADD，请求不等待redis
+ * 3.按天查询用PFCOUNT；按周查询时，已经结束的窗口用PFMERGE合并一次后缓存，包含今天的窗口直接对多个key做PFCOUNT
+ */
+@Slf4j
+@Component
+public class UvRecorder {
+    public static final String TYPE_SHOP = "shop";
+    public static final String TYPE_BLOG = "blog";
+    public static final String WINDOW_DAY = "day";
+    public static final String WINDOW_WEEK = "week";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisPipelineExecutor redisPipelineExecutor;
+
+    @Value("${hmdp.uv.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.uv.flush-interval-millis:1000}")
+    private long flushIntervalMillis;
+    // 每次pipeline最多发送的key数
+    @Value("${hmdp.uv.flush-batch-size:500}")
+    private int flushBatchSize;
+    // 缓冲区最多保存的访客数，超过后丢弃，不能因为redis慢把内存撑满
+    @Value("${hmdp.uv.max-pending:100000}")
+    private int maxPending;
+    // 每天的HyperLogLog和合并结果保留的天数
+    @Value("${hmdp.uv.retain-days:35}")
+    private long retainDays;
+    // 反向代理的地址，逗号分隔；只有请求来自这些地址时才读取X-Forwarded-For，否则客户端可以随意伪造
+    @Value("${hmdp.uv.trusted-proxies:}")
+    private String trustedProxies;
+
+    private Set<String> trustedProxySet = Collections.emptySet();
+
+    // key -> 还没有发给redis的访客
+    private final Map<String, Set<String>> pending = new ConcurrentHashMap<>();
+    private final LongAdder pendingSize = new LongAdder();
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder flushedKeys = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        trustedProxySet = new HashSet<>(StrUtil.split(trustedProxies, ',', true, true));
+        if (!enabled) {
+            return;
+        }
+        flushExecutor.scheduleWithFixedDelay(this::flushSafely,
+                flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录一次访问，只写进程内缓冲区
+     */
+    public void record(String type, Long id, String visitor) {
+        if (!enabled || id == null || visitor == null) {
+            return;
+        }
+        if (pendingSize.sum() >= maxPending) {
+            dropped.increment();
+            return;
+        }
+        recorded.increment();
+        String key = dayKey(type, id, LocalDate.now());
+        // 在compute中修改集合，和flush时的remove互斥，不会丢数据
+        pending.compute(key, (k, visitors) -> {
+            if (visitors == null) {
+                visitors = new HashSet<>();
+            }
+            if (visitors.add(visitor)) {
+                pendingSize.increment();
+            }
+            return visitors;
+        });
+    }
+
+    /**
+     * 访客标识：登录用户用用户id，未登录用客户端ip
+     * 请求来自配置的反向代理时，取X-Forwarded-For中代理追加的最后一个地址，前面的地址客户端可以伪造
+     */
+    public String visitor(HttpServletRequest request) {
+        UserDTO user = UserHolder.getUser();
+        if (user != null) {
+            return "u" + user.getId();
+        }
+        String remote = request.getRemoteAddr();
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (forwarded != null && !forwarded.isEmpty() && trustedProxySet.contains(remote)) {
+            int idx = forwarded.lastIndexOf(',');
+            return "ip" + (idx < 0 ? forwarded : forwarded.substring(idx + 1)).trim();
+        }
+        return "ip" + remote;
+    }
+
+    /**
+     * 按窗口查询独立访客数
+     * @param window day 按天；week 截止date的7天
+     * @param date yyyyMMdd，为null表示今天
+     */
+    public Result queryCount(String type, Long id, String window, String date) {
+        int days;
+        if (WINDOW_DAY.equals(window)) {
+            days = 1;
+        } else if (WINDOW_WEEK.equals(window)) {
+            days = 7;
+        } else {
+            return Result.fail("不支持的统计窗口！");
+        }
+        LocalDate end;
+        try {
+            end = date == null ? LocalDate.now() : LocalDate.parse(date, DauRecorder.DAU_DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            return Result.fail("日期格式错误！");
+        }
+        return Result.ok(count(type, id, end, days));
+    }
+
+    /**
+     * 查询截止end的days天内的独立访客数
+     */
+    public long count(String type, Long id, LocalDate end, int days) {
+        // 1.单天直接PFCOUNT
+        if (days <= 1) {
+            Long size = stringRedisTemplate.opsForHyperLogLog().size(dayKey(type, id, end));
+            return size == null ? 0 : size;
+        }
+        String[] keys = new String[days];
+        for (int i = 0; i < days; i++) {
+            keys[i] = dayKey(type, id, end.minusDays(i));
+        }
+        // 2.窗口包含今天，数据还在变化，PFCOUNT多个key在redis中临时合并，不保存结果
+        if (!end.isBefore(LocalDate.now())) {
+            Long size = stringRedisTemplate.opsForHyperLogLog().size(keys);
+            return size == null ? 0 : size;
+        }
+        // 3.已经结束的窗口不会再变化，PFMERGE一次后保存，之后直接PFCOUNT合并结果
+        String windowKey = UV_KEY + type + ":" + id + ":" + days + "d:" + end.format(DauRecorder.DAU_DATE_FORMAT);
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(windowKey))) {
+            redisPipelineExecutor.pipeline("uvMerge", conn -> {
+                conn.pfMerge(windowKey, keys);
+                conn.expire(windowKey, TimeUnit.DAYS.toSeconds(retainDays));
+            });
+        }
+        Long size = stringRedisTemplate.opsForHyperLogLog().size(windowKey);
+        return size == null ? 0 : size;
+    }
+
+    private static String dayKey(String type, Long id, LocalDate date) {
+        return UV_KEY + type + ":" + id + ":" + date.format(DauRecorder.DAU_DATE_FORMAT);
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("写入UV失败", e);
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        // 1.按批取出缓冲区中的key和访客
+        List<String> keys = new ArrayList<>(pending.keySet());
+        long expireSeconds = TimeUnit.DAYS.toSeconds(retainDays);
+        for (int from = 0; from < keys.size(); from += flushBatchSize) {
+            Map<String, Set<String>> batch = new LinkedHashMap<>();
+            for (String key : keys.subList(from, Math.min(keys.size(), from + flushBatchSize))) {
+                Set<String> visitors = pending.remove(key);
+                if (visitors != null) {
+                    batch.put(key, visitors);
+                    pendingSize.add(-visitors.size());
+                }
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            // 2.每个key一条PFADD和一条EXPIRE，一批在一次pipeline中发送；失败时放回缓冲区，下次再写
+            try {
+                redisPipelineExecutor.pipeline("uvFlush", conn -> batch.forEach((key, visitors) -> {
+                    conn.pfAdd(key, visitors.toArray(new String[0]));
+                    conn.expire(key, expireSeconds);
+                }));
+            } catch (RuntimeException e) {
+                requeue(batch);
+                throw e;
+            }
+            flushedKeys.add(batch.size());
+            flushes.increment();
+        }
+    }
+
+    // 写入失败的访客放回缓冲区，缓冲区满了之后的丢弃
+    private void requeue(Map<String, Set<String>> batch) {
+        batch.forEach((key, visitors) -> pending.compute(key, (k, current) -> {
+            if (current == null) {
+                current = new HashSet<>();
+            }
+            for (String visitor : visitors) {
+                if (pendingSize.sum() >= maxPending) {
+                    dropped.increment();
+                } else if (current.add(visitor)) {
+                    pendingSize.increment();
+                }
+            }
+            return current.isEmpty() ? null : current;
+        }));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("recorded", recorded.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("pendingKeys", pending.size());
+        stats.put("pendingVisitors", pendingSize.sum());
+        stats.put("flushedKeys", flushedKeys.sum());
+        stats.put("flushes", flushes.sum());
+        return stats;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        flushExecutor.shutdown();
+        // 关闭前把缓冲区中的访问写入redis
+        if (enabled) {
+            flushSafely();
+        }
+    }
+}
@@ -7,10 +7,12 @@
 -- 参数列表
 local seckillVoucherID = ARGV[1]
 local userID = ARGV[2]
+local orderID = ARGV[3]
 
 -- key列表
 local stockKey = 'seckill:stock:'..seckillVoucherID
 local orderKey = 'seckill:order:'..seckillVoucherID
+local streamKey = 'stream.orders'
 
 -- 1. 查看秒杀券库存是否充足
 if tonumber(redis.call('get', stockKey)) <= 0 then
@@ -27,4 +29,6 @@ end
 -- 3. 减库存并且创建订单
 redis.call('incrby',stockKey, -1)
 redis.call('sadd',orderKey, userID)
+-- 4. 订单写入消息队列，和扣库存在同一个原子操作里，进程重启也不会丢单
+redis.call('xadd', streamKey, '*', 'userId', userID, 'voucherId', seckillVoucherID, 'id', orderID)
 return 0
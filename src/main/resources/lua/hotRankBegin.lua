@@ -0,0 +1,13 @@
+-- 开始重建热门榜：取出还没有写回数据库的点赞增量，同时打开点赞日志
+-- 之后的点赞由likeBlog.lua记到日志里，换榜时补到新榜单上；取增量和打开日志在一个脚本里，点赞不会算两次也不会漏掉
+-- KEYS[1] 点赞增量 KEYS[2] 写回中的点赞增量 KEYS[3] 重建中的标记 KEYS[4] 点赞日志
+-- ARGV[1] 标记和日志的有效期(毫秒)，重建中途进程崩溃时自动清除
+-- 返回 [博文id, 增量, 博文id, 增量, ...]
+redis.call('del', KEYS[4])
+redis.call('set', KEYS[3], '1', 'px', ARGV[1])
+local result = redis.call('hgetall', KEYS[1])
+local flushing = redis.call('hgetall', KEYS[2])
+for i = 1, #flushing do
+    result[#result + 1] = flushing[i]
+end
+return result
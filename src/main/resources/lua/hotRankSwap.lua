@@ -0,0 +1,26 @@
+-- 用重建好的临时榜单替换正式榜单，再补上重建期间的点赞，最后关闭点赞日志
+-- KEYS[1] 热门榜 KEYS[2] 趋势榜 KEYS[3] 临时热门榜 KEYS[4] 临时趋势榜 KEYS[5] 重建中的标记 KEYS[6] 点赞日志
+-- ARGV[1] 点赞数每增长10倍增加的趋势分
+-- 返回补上的博文数
+redis.call('rename', KEYS[3], KEYS[1])
+redis.call('rename', KEYS[4], KEYS[2])
+-- 临时key带有效期，改名后有效期也跟过来了
+redis.call('persist', KEYS[1])
+redis.call('persist', KEYS[2])
+local journal = redis.call('hgetall', KEYS[6])
+local applied = 0
+for i = 1, #journal, 2 do
+    local id = journal[i]
+    local delta = tonumber(journal[i + 1])
+    if delta ~= 0 and redis.call('ZSCORE', KEYS[1], id) then
+        local liked = tonumber(redis.call('ZINCRBY', KEYS[1], delta, id))
+        local old = liked - delta
+        if (redis.call('ZSCORE', KEYS[2], id)) then
+            local score = tonumber(ARGV[1]) * (math.log10(math.max(liked, 1)) - math.log10(math.max(old, 1)))
+            redis.call('ZINCRBY', KEYS[2], math.floor(score + 0.5), id)
+        end
+        applied = applied + 1
+    end
+end
+redis.call('del', KEYS[5], KEYS[6])
+return applied
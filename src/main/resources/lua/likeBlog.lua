@@ -0,0 +1,31 @@
+-- 点赞或取消点赞，同一个用户对同一篇博文只能点赞一次
+-- KEYS[1] 博文的点赞用户集合 KEYS[2] 待写回数据库的点赞增量 KEYS[3] 热门榜 KEYS[4] 趋势榜
+-- KEYS[5] 榜单重建中的标记 KEYS[6] 重建期间的点赞日志
+-- ARGV[1] 用户id ARGV[2] 博文id ARGV[3] 点赞数每增长10倍增加的趋势分
+-- 返回1表示点赞，0表示取消点赞
+local delta = 1
+if (redis.call('SISMEMBER', KEYS[1], ARGV[1]) == 1) then
+    redis.call('SREM', KEYS[1], ARGV[1])
+    delta = -1
+else
+    redis.call('SADD', KEYS[1], ARGV[1])
+end
+-- 点赞增量由定时任务批量写回数据库
+redis.call('HINCRBY', KEYS[2], ARGV[2], delta)
+-- 榜单重建中，新榜单里没有这次点赞，记下来换榜时补上
+if (redis.call('EXISTS', KEYS[5]) == 1) then
+    redis.call('HINCRBY', KEYS[6], ARGV[2], delta)
+end
+-- 不在榜里的博文等下次重建时再加入
+if (redis.call('ZSCORE', KEYS[3], ARGV[2])) then
+    local liked = tonumber(redis.call('ZINCRBY', KEYS[3], delta, ARGV[2]))
+    local old = liked - delta
+    if (redis.call('ZSCORE', KEYS[4], ARGV[2])) then
+        local score = tonumber(ARGV[3]) * (math.log10(math.max(liked, 1)) - math.log10(math.max(old, 1)))
+        redis.call('ZINCRBY', KEYS[4], math.floor(score + 0.5), ARGV[2])
+    end
+end
+if (delta == 1) then
+    return 1
+end
+return 0
@@ -0,0 +1,49 @@
+-- 令牌桶限流，资源桶和用户桶都有令牌时才各扣一个，两个key带同一个hash tag，在集群中落在同一个slot
+-- KEYS[1] 资源的令牌桶 KEYS[2] 用户的令牌桶（未登录时没有）
+-- ARGV[1] 当前毫秒数 ARGV[2] 资源每秒生成的令牌数 ARGV[3] 资源桶容量 ARGV[4] 用户每秒生成的令牌数 ARGV[5] 用户桶容量
+-- 返回0 放行；1 资源限流；2 用户限流
+local now = tonumber(ARGV[1])
+
+-- 按上次更新到现在的时间补充令牌，桶不存在时是满的
+local function refill(key, rate, capacity)
+    local bucket = redis.call('hmget', key, 'tokens', 'ts')
+    local tokens = tonumber(bucket[1])
+    local ts = tonumber(bucket[2])
+    if tokens == nil or ts == nil then
+        return capacity, now
+    end
+    -- 各节点时钟有偏差，时间倒退时不补充
+    if now > ts then
+        tokens = math.min(capacity, tokens + (now - ts) * rate / 1000)
+        ts = now
+    end
+    return tokens, ts
+end
+
+-- 扣一个令牌，桶补满需要的时间之后key自动删除，删除后等于满桶
+local function take(key, tokens, ts, rate, capacity)
+    redis.call('hmset', key, 'tokens', tokens - 1, 'ts', ts)
+    redis.call('pexpire', key, math.ceil(capacity * 1000 / rate) + 1000)
+end
+
+-- 1. 资源桶
+local rate = tonumber(ARGV[2])
+local capacity = tonumber(ARGV[3])
+local tokens, ts = refill(KEYS[1], rate, capacity)
+if tokens < 1 then
+    return 1
+end
+
+-- 2. 用户桶
+if #KEYS > 1 then
+    local userRate = tonumber(ARGV[4])
+    local userCapacity = tonumber(ARGV[5])
+    local userTokens, userTs = refill(KEYS[2], userRate, userCapacity)
+    if userTokens < 1 then
+        return 2
+    end
+    take(KEYS[2], userTokens, userTs, userRate, userCapacity)
+end
+
+take(KEYS[1], tokens, ts, rate, capacity)
+return 0
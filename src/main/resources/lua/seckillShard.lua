@@ -0,0 +1,29 @@
+-- 从一个库存分片购买秒杀券，所有key带同一个hash tag {s<分片号>}，在集群中落在同一个slot
+-- KEYS[1] 分片库存 KEYS[2] 分片的订单消息队列 KEYS[3] 分片的已购用户集合（只有home模式需要）
+-- ARGV[1] 秒杀券id ARGV[2] 用户id ARGV[3] 订单id ARGV[4] 1 用户自己的分片(home)；0 借用其他分片的库存
+-- 返回0 下单成功；1 分片库存不足；2 已经买过；3 自己的分片库存不足，已经在已购集合中占位，由调用方去其他分片购买
+local home = ARGV[4] == '1'
+
+-- 1. 一人一单只在用户自己的分片中判断，同一个用户总是落到同一个分片
+if home and redis.call('sismember', KEYS[3], ARGV[2]) == 1 then
+    return 2
+end
+
+-- 2. 分片库存不足
+local stock = tonumber(redis.call('get', KEYS[1]))
+if stock == nil or stock <= 0 then
+    if home then
+        -- 先占位再去其他分片买，同一个用户并发的第二个请求会在上一步返回2
+        redis.call('sadd', KEYS[3], ARGV[2])
+        return 3
+    end
+    return 1
+end
+
+-- 3. 扣减分片库存，订单写入分片的消息队列
+redis.call('incrby', KEYS[1], -1)
+if home then
+    redis.call('sadd', KEYS[3], ARGV[2])
+end
+redis.call('xadd', KEYS[2], '*', 'userId', ARGV[2], 'voucherId', ARGV[1], 'id', ARGV[3])
+return 0
@@ -0,0 +1,180 @@
+package com.hmdp;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * binary缓存格式按字段顺序读写，字段顺序就是格式本身，每个类型都要能原样读回
+ */
+class BinaryCacheCodecTests {
+    // 带纳秒，确认时间不会丢失精度
+    private static final LocalDateTime TIME = LocalDateTime.of(2022, 1, 2, 3, 4, 5, 123456789);
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec(1024);
+
+    @Test
+    void roundTripsEveryType() {
+        assertRoundTrip(newShop(1L));
+        assertRoundTrip(newShopType(2L));
+        assertRoundTrip(newVoucher(3L));
+        UserDTO user = new UserDTO();
+        user.setId(4L);
+        user.setNickName("用户");
+        user.setIcon("/imgs/icons/user.jpg");
+        assertRoundTrip(user);
+    }
+
+    @Test
+    void roundTripsNullFields() {
+        assertRoundTrip(new Shop());
+        assertRoundTrip(new ShopType());
+        assertRoundTrip(new Voucher());
+        assertRoundTrip(new UserDTO());
+    }
+
+    @Test
+    void roundTripsLists() {
+        List<ShopType> types = Arrays.asList(newShopType(1L), new ShopType(), newShopType(3L));
+        byte[] data = codec.encodeList(types, ShopType.class);
+        assertEquals(types, codec.decodeList(data, ShopType.class));
+
+        byte[] empty = codec.encodeList(Collections.emptyList(), Shop.class);
+        assertEquals(Collections.emptyList(), codec.decodeList(empty, Shop.class));
+    }
+
+    @Test
+    void roundTripsRedisData() {
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(TIME);
+        redisData.setData(newShop(1L));
+        assertRoundTrip(redisData);
+
+        RedisData empty = new RedisData();
+        assertRoundTrip(empty);
+    }
+
+    @Test
+    void roundTripsCompressedValues() {
+        BinaryCacheCodec small = new BinaryCacheCodec(64);
+        Shop shop = newShop(1L);
+        StringBuilder images = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            images.append("https://img.example.com/shop/").append(i).append(".jpg,");
+        }
+        shop.setImages(images.toString());
+        byte[] data = small.encode(shop);
+        // 第二个字节是flags，最低位表示deflate压缩
+        assertTrue((data[1] & 1) != 0);
+        assertEquals(shop, small.decode(data, Shop.class));
+
+        List<Shop> shops = Arrays.asList(shop, newShop(2L));
+        assertEquals(shops, small.decodeList(small.encodeList(shops, Shop.class), Shop.class));
+    }
+
+    @Test
+    void readsLegacyMillisTimes() throws IOException {
+        // 旧格式：flags为0，时间是默认时区的毫秒数，精度到毫秒
+        LocalDateTime time = TIME.withNano(123_000_000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(BinaryCacheCodec.MAGIC);
+        out.writeByte(0);
+        // ShopType的类型id
+        out.writeByte(2);
+        out.writeBoolean(true);
+        out.writeLong(7L);
+        byte[] name = "美食".getBytes(StandardCharsets.UTF_8);
+        out.writeInt(name.length);
+        out.write(name);
+        out.writeInt(-1);
+        out.writeBoolean(true);
+        out.writeInt(1);
+        out.writeBoolean(true);
+        out.writeLong(time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        out.writeBoolean(false);
+
+        ShopType shopType = codec.decode(bytes.toByteArray(), ShopType.class);
+        assertEquals(Long.valueOf(7L), shopType.getId());
+        assertEquals("美食", shopType.getName());
+        assertNull(shopType.getIcon());
+        assertEquals(Integer.valueOf(1), shopType.getSort());
+        assertEquals(time, shopType.getCreateTime());
+        assertNull(shopType.getUpdateTime());
+    }
+
+    private void assertRoundTrip(Object value) {
+        byte[] data = codec.encode(value);
+        assertEquals(value, codec.decode(data, value.getClass()));
+    }
+
+    private static Shop newShop(Long id) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://img.example.com/shop/1.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(TIME);
+        shop.setUpdateTime(TIME.plusDays(1));
+        shop.setDistance(12.5);
+        return shop;
+    }
+
+    private static ShopType newShopType(Long id) {
+        ShopType shopType = new ShopType();
+        shopType.setId(id);
+        shopType.setName("美食");
+        shopType.setIcon("/types/ms.png");
+        shopType.setSort(1);
+        shopType.setCreateTime(TIME);
+        shopType.setUpdateTime(TIME.minusYears(30));
+        return shopType;
+    }
+
+    private static Voucher newVoucher(Long id) {
+        Voucher voucher = new Voucher();
+        voucher.setId(id);
+        voucher.setShopId(1L);
+        voucher.setTitle("50元代金券");
+        voucher.setSubTitle("周一至周日均可使用");
+        voucher.setRules("全场通用\\n无需预约");
+        voucher.setPayValue(4750L);
+        voucher.setActualValue(5000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(100);
+        voucher.setBeginTime(TIME);
+        voucher.setEndTime(TIME.plusHours(2));
+        voucher.setCreateTime(TIME);
+        voucher.setUpdateTime(TIME);
+        return voucher;
+    }
+}
@@ -0,0 +1,121 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.utils.CacheCodecs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比json和binary两种缓存格式的大小和编解码耗时
+ * 运行：在IDE中执行main方法，或者 mvn test-compile 后用 org.openjdk.jmh.Main 启动
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    @Param({"json", "binary"})
+    private String codec;
+
+    private CacheCodecs codecs;
+    private Shop shop;
+    private List<ShopType> shopTypes;
+    private byte[] shopData;
+    private byte[] shopTypesData;
+
+    @Setup
+    public void setup() {
+        codecs = new CacheCodecs(codec, 1024);
+        shop = newShop();
+        shopTypes = newShopTypes();
+        shopData = codecs.encode(shop);
+        shopTypesData = codecs.encodeList(shopTypes, ShopType.class);
+        // 每个值在redis中占用的字节数
+        System.out.println();
+        System.out.println(codec + " shop bytes: " + shopData.length
+                + ", shop type list bytes: " + shopTypesData.length);
+    }
+
+    @Benchmark
+    public byte[] encodeShop() {
+        return codecs.encode(shop);
+    }
+
+    @Benchmark
+    public Shop decodeShop() {
+        return codecs.decode(shopData, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] encodeShopTypes() {
+        return codecs.encodeList(shopTypes, ShopType.class);
+    }
+
+    @Benchmark
+    public List<ShopType> decodeShopTypes() {
+        return codecs.decodeList(shopTypesData, ShopType.class);
+    }
+
+    private static Shop newShop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+
+    private static List<ShopType> newShopTypes() {
+        String[] names = {"美食", "KTV", "丽人·美发", "健身运动", "按摩·足疗", "美容SPA", "亲子游乐", "酒吧", "轰趴馆", "美睫·美甲"};
+        List<ShopType> shopTypes = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            ShopType shopType = new ShopType();
+            shopType.setId(i + 1L);
+            shopType.setName(names[i]);
+            shopType.setIcon("/types/" + (i + 1) + ".png");
+            shopType.setSort(i + 1);
+            shopType.setCreateTime(LocalDateTime.of(2021, 12, 22, 20, 17, 47));
+            shopType.setUpdateTime(LocalDateTime.of(2021, 12, 23, 11, 24, 31));
+            shopTypes.add(shopType);
+        }
+        return shopTypes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -5,9 +5,11 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.ToLongFunction;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -35,6 +37,43 @@ class HmDianPingApplicationTests {
         System.out.println("finished");
     }
 
+    @Test
+    void compareIDGeneratorModes() throws InterruptedException {
+        // 预热，让号段模式先领到第一段
+        for (int i = 0; i < 1000; i++) {
+            idGenerator.nextIDByRedis("bench-redis");
+            idGenerator.nextIDBySegment("bench-segment");
+        }
+        benchmarkID("redis INCR", idGenerator::nextIDByRedis, "bench-redis");
+        benchmarkID("segment", idGenerator::nextIDBySegment, "bench-segment");
+    }
+
+    private void benchmarkID(String mode, ToLongFunction<String> generator, String keyType) throws InterruptedException {
+        int threads = 100;
+        int perThread = 1000;
+        long[] latencies = new long[threads * perThread];
+        CountDownLatch countDownLatch = new CountDownLatch(threads);
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * perThread;
+            es.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    long start = System.nanoTime();
+                    generator.applyAsLong(keyType);
+                    latencies[offset + i] = System.nanoTime() - start;
+                }
+                countDownLatch.countDown();
+            });
+        }
+        countDownLatch.await();
+        long elapsed = System.nanoTime() - begin;
+        Arrays.sort(latencies);
+        System.out.printf("%s: %.0f ids/s, p50=%dus, p99=%dus%n", mode,
+                latencies.length * 1e9 / elapsed,
+                latencies[latencies.length / 2] / 1000,
+                latencies[(int) (latencies.length * 0.99)] / 1000);
+    }
+
     @Test
     void testThreadPool() throws InterruptedException {
         for (int i = 0; i < 10; i++) {
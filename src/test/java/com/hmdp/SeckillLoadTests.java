@@ -0,0 +1,240 @@
+package com.hmdp;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.utils.RedisPipelineExecutor;
+import com.hmdp.utils.SeckillMetaCache;
+import com.hmdp.utils.SeckillStock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER;
+import static com.hmdp.utils.RedisConstants.SECKILL_META;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 同样的tomcat线程数下，对比同步下单和异步下单的吞吐和p99延迟
+ * tomcat只有20个线程，客户端200个并发，同步接口的请求要排队等线程，异步接口的线程发出redis命令后就归还
+ * 关闭限流和订单消费，每个请求是不同的用户，都能下单成功；测试结束后删除写入的数据
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "server.tomcat.threads.max=20",
+        "hmdp.rate-limit.enabled=false",
+        "hmdp.order.consumer-enabled=false",
+        "hmdp.seckill.stock-shards=1",
+        "hmdp.seckill.async-enabled=true"})
+class SeckillLoadTests {
+    private static final int CLIENTS = 200;
+    private static final int WARMUP_REQUESTS = 1000;
+    private static final int REQUESTS = 20000;
+    private static final int USER_BATCH = 1000;
+
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisPipelineExecutor redisPipelineExecutor;
+    @Autowired
+    private SeckillStock seckillStock;
+    @Autowired
+    private SeckillMetaCache seckillMetaCache;
+
+    private final ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+    private final List<Long> voucherIds = new ArrayList<>();
+    private final List<String> tokens = new ArrayList<>();
+
+    @Test
+    void asyncVersusBlocking() throws InterruptedException {
+        Report blocking = run("");
+        Report async = run("/async");
+        System.out.println();
+        System.out.println("mode      requests/s   p50(ms)   p99(ms)");
+        System.out.println(blocking.format("blocking"));
+        System.out.println(async.format("async"));
+        assertEquals(REQUESTS, blocking.success);
+        assertEquals(REQUESTS, async.success);
+    }
+
+    // 每种模式一张新券，先预热，再用新的用户压测
+    private Report run(String suffix) throws InterruptedException {
+        long voucherId = newVoucher(WARMUP_REQUESTS + REQUESTS);
+        String url = "http://localhost:" + port + "/voucher-order/seckill/" + voucherId + suffix;
+        rush(url, newUsers(WARMUP_REQUESTS));
+        return rush(url, newUsers(REQUESTS));
+    }
+
+    private Report rush(String url, List<String> users) throws InterruptedException {
+        long[] latencies = new long[users.size()];
+        AtomicInteger success = new AtomicInteger();
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(CLIENTS);
+        long start = System.nanoTime();
+        for (int c = 0; c < CLIENTS; c++) {
+            clients.submit(() -> {
+                try {
+                    for (int i = next.getAndIncrement(); i < users.size(); i = next.getAndIncrement()) {
+                        long begin = System.nanoTime();
+                        if (post(url, users.get(i))) {
+                            success.incrementAndGet();
+                        }
+                        latencies[i] = System.nanoTime() - begin;
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        return new Report(success.get(), users.size() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed,
+                latencies[latencies.length / 2], latencies[(int) (latencies.length * 0.99)]);
+    }
+
+    private static boolean post(String url, String token) {
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("authorization", token);
+            int status = conn.getResponseCode();
+            InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+            // 读完响应体，连接才能复用
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (in != null) {
+                byte[] buf = new byte[256];
+                for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                    body.write(buf, 0, n);
+                }
+                in.close();
+            }
+            return status == 200 && new String(body.toByteArray(), StandardCharsets.UTF_8).contains("\"success\":true");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private long newVoucher(int stock) {
+        long voucherId = 9_000_000_000L + ThreadLocalRandom.current().nextInt(1_000_000);
+        voucherIds.add(voucherId);
+        Voucher voucher = new Voucher();
+        voucher.setId(voucherId);
+        voucher.setStatus(1);
+        SeckillVoucher seckillVoucher = new SeckillVoucher();
+        seckillVoucher.setVoucherId(voucherId);
+        seckillVoucher.setStock(stock);
+        seckillVoucher.setBeginTime(LocalDateTime.now().minusHours(1));
+        seckillVoucher.setEndTime(LocalDateTime.now().plusHours(1));
+        redisPipelineExecutor.pipeline("testInitVoucher", conn -> {
+            seckillStock.init(voucherId, stock, conn);
+            seckillMetaCache.put(voucher, seckillVoucher, conn);
+        });
+        return voucherId;
+    }
+
+    // 直接写入登录会话，每个用户一个token；用户id也会写入日活bitmap，不能太大
+    private List<String> newUsers(int count) {
+        List<String> users = new ArrayList<>(count);
+        for (int from = 0; from < count; from += USER_BATCH) {
+            List<String> batch = new ArrayList<>();
+            for (int i = from; i < Math.min(count, from + USER_BATCH); i++) {
+                batch.add(UUID.randomUUID().toString());
+            }
+            int base = tokens.size();
+            redisPipelineExecutor.pipeline("testLogin", conn -> {
+                for (int i = 0; i < batch.size(); i++) {
+                    Map<String, String> user = new HashMap<>();
+                    user.put("id", String.valueOf(1_000_000L + base + i));
+                    user.put("nickName", "load-test");
+                    conn.hMSet(LOGIN_USER + batch.get(i), user);
+                    conn.expire(LOGIN_USER + batch.get(i), TimeUnit.MINUTES.toSeconds(10));
+                }
+            });
+            tokens.addAll(batch);
+            users.addAll(batch);
+        }
+        return users;
+    }
+
+    @AfterEach
+    void cleanUp() {
+        clients.shutdownNow();
+        List<String> keys = new ArrayList<>();
+        for (String token : tokens) {
+            keys.add(LOGIN_USER + token);
+        }
+        for (Long voucherId : voucherIds) {
+            keys.add(SECKILL_STOCK + voucherId);
+            keys.add(SECKILL_ORDER + voucherId);
+            keys.add(SECKILL_META + voucherId);
+        }
+        stringRedisTemplate.delete(keys);
+        // 消息队列中这几张券的订单
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_STREAM, Range.unbounded());
+        if (records != null) {
+            List<RecordId> ids = new ArrayList<>();
+            for (MapRecord<String, Object, Object> record : records) {
+                for (Long voucherId : voucherIds) {
+                    if (String.valueOf(voucherId).equals(record.getValue().get("voucherId"))) {
+                        ids.add(record.getId());
+                    }
+                }
+            }
+            if (!ids.isEmpty()) {
+                stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_STREAM, ids.toArray(new RecordId[0]));
+            }
+        }
+        tokens.clear();
+        voucherIds.clear();
+    }
+
+    private static class Report {
+        private final int success;
+        private final double requestsPerSecond;
+        private final long p50Nanos;
+        private final long p99Nanos;
+
+        private Report(int success, double requestsPerSecond, long p50Nanos, long p99Nanos) {
+            this.success = success;
+            this.requestsPerSecond = requestsPerSecond;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        private String format(String mode) {
+            return String.format("%-9s %10.0f %9.2f %9.2f", mode, requestsPerSecond,
+                    p50Nanos / 1e6, p99Nanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisPipelineExecutor;
+import com.hmdp.utils.SeckillStock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 库存分片在高并发下不超卖、一人一单
+ * 关闭订单消费，订单只写入分片的消息队列，测试结束后删除
+ */
+@SpringBootTest(properties = {"hmdp.seckill.stock-shards=8", "hmdp.order.consumer-enabled=false"})
+class SeckillStockTests {
+    private static final int SHARDS = 8;
+
+    @Autowired
+    private SeckillStock seckillStock;
+    @Autowired
+    private RedisPipelineExecutor redisPipelineExecutor;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final ExecutorService es = Executors.newFixedThreadPool(200);
+    private final AtomicLong orderIds = new AtomicLong();
+    private final List<Long> voucherIds = new ArrayList<>();
+
+    @Test
+    void soldOutWithoutOversell() throws InterruptedException {
+        // 1000个用户每人同时抢两次，只有100张
+        Outcome outcome = rush(100, 1000, 2);
+        assertEquals(100, outcome.success.get());
+        assertEquals(0, outcome.doubleBuys.get());
+        assertEquals(0, seckillStock.remaining(outcome.voucherId));
+        assertShardsNotNegative(outcome.voucherId);
+        assertEquals(100, countOrders(outcome.voucherId));
+    }
+
+    @Test
+    void onePerUserWhenStockIsEnough() throws InterruptedException {
+        // 库存比用户多，每个用户只能成功一次，其他请求都是重复购买
+        Outcome outcome = rush(100, 50, 4);
+        assertEquals(50, outcome.success.get());
+        assertEquals(0, outcome.doubleBuys.get());
+        assertEquals(150, outcome.duplicates.get());
+        assertEquals(50, seckillStock.remaining(outcome.voucherId));
+        assertEquals(50, countOrders(outcome.voucherId));
+    }
+
+    private Outcome rush(int stock, int users, int attemptsPerUser) throws InterruptedException {
+        long voucherId = 9_000_000_000L + ThreadLocalRandom.current().nextInt(1_000_000);
+        voucherIds.add(voucherId);
+        redisPipelineExecutor.pipeline("testInitStock", conn -> seckillStock.init(voucherId, stock, conn));
+        assertEquals(SHARDS, seckillStock.shardsOf(voucherId));
+
+        Outcome outcome = new Outcome(voucherId);
+        Set<Long> buyers = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(users * attemptsPerUser);
+        for (int u = 1; u <= users; u++) {
+            long userId = u;
+            for (int a = 0; a < attemptsPerUser; a++) {
+                es.submit(() -> {
+                    try {
+                        start.await();
+                        int r = seckillStock.buy(voucherId, userId, orderIds.incrementAndGet());
+                        if (r == SeckillStock.OK) {
+                            outcome.success.incrementAndGet();
+                            if (!buyers.add(userId)) {
+                                outcome.doubleBuys.incrementAndGet();
+                            }
+                        } else if (r == SeckillStock.DUPLICATE) {
+                            outcome.duplicates.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        start.countDown();
+        done.await();
+        return outcome;
+    }
+
+    private void assertShardsNotNegative(long voucherId) {
+        for (int i = 0; i < SHARDS; i++) {
+            String value = stringRedisTemplate.opsForValue().get(SeckillStock.shardStockKey(voucherId, i));
+            assertTrue(Long.parseLong(value) >= 0, "shard " + i + " stock " + value);
+        }
+    }
+
+    // 分片消息队列中这张券的订单数
+    private int countOrders(long voucherId) {
+        int count = 0;
+        for (int i = 0; i < SHARDS; i++) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(SeckillStock.shardStream(i), Range.unbounded());
+            if (records == null) {
+                continue;
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                if (String.valueOf(voucherId).equals(record.getValue().get("voucherId"))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @AfterEach
+    void cleanUp() {
+        for (Long voucherId : voucherIds) {
+            List<String> keys = new ArrayList<>();
+            keys.add(SECKILL_SHARDS + voucherId);
+            for (int i = 0; i < SHARDS; i++) {
+                keys.add(SeckillStock.shardStockKey(voucherId, i));
+                keys.add(SeckillStock.shardOrderKey(voucherId, i));
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                        .range(SeckillStock.shardStream(i), Range.unbounded());
+                if (records == null) {
+                    continue;
+                }
+                List<RecordId> ids = new ArrayList<>();
+                for (MapRecord<String, Object, Object> record : records) {
+                    if (String.valueOf(voucherId).equals(record.getValue().get("voucherId"))) {
+                        ids.add(record.getId());
+                    }
+                }
+                if (!ids.isEmpty()) {
+                    stringRedisTemplate.opsForStream().delete(SeckillStock.shardStream(i), ids.toArray(new RecordId[0]));
+                }
+            }
+            stringRedisTemplate.delete(keys);
+        }
+        voucherIds.clear();
+    }
+
+    private static class Outcome {
+        private final long voucherId;
+        private final AtomicInteger success = new AtomicInteger();
+        private final AtomicInteger duplicates = new AtomicInteger();
+        private final AtomicInteger doubleBuys = new AtomicInteger();
+
+        private Outcome(long voucherId) {
+            this.voucherId = voucherId;
+        }
+    }
+}